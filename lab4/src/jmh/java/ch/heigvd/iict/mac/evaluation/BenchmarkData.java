@@ -0,0 +1,52 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import org.apache.lucene.analysis.Analyzer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.List;
+
+/*
+ * Data shared by the benchmarks, read from the same files as Evaluation.
+ * The benchmarks are run from the lab4 directory.
+ */
+final class BenchmarkData {
+    static final String CORPUS = "documents/cacm.txt";
+    static final PrintStream NO_OUTPUT = new PrintStream(OutputStream.nullOutputStream());
+
+    private BenchmarkData() {
+    }
+
+    static Analyzer analyzer(String analyzerName) throws IOException {
+        for (NamedAnalyzer na : Evaluation.createAnalyzers(Evaluation.readingCommonWords())) {
+            if (na.getAnalyzerName().equals(analyzerName)) {
+                return na.getAnalyzer();
+            }
+        }
+        throw new IllegalArgumentException("Unknown analyzer: " + analyzerName);
+    }
+
+    /*
+     * Number of documents in the corpus, its non-empty lines.
+     */
+    static int corpusDocuments() throws IOException {
+        int documents = 0;
+        try (CorpusReader corpus = new CorpusReader(Path.of(CORPUS))) {
+            CorpusRecord record = new CorpusRecord();
+            while (corpus.next(record)) {
+                documents++;
+            }
+        }
+        return documents;
+    }
+
+    static List<String> queries() throws IOException {
+        return Evaluation.readingQueries();
+    }
+
+    static Qrels qrels() throws IOException {
+        return Evaluation.readingQrels();
+    }
+}
@@ -0,0 +1,67 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import org.apache.lucene.index.IndexWriterConfig;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Latency of a single query against the number of threads searching its
+ * segments. Each invocation runs the next query of the query file, so the
+ * score is the average over the queries whatever their number. The index is
+ * flushed every corpus size / segments documents so that it has that many
+ * segments, fewer than a merge tier so none of them gets merged.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class ConcurrentSearchBenchmark {
+    @Param({"English"})
+    public String analyzerName;
+
+    @Param({"1", "4", "8"})
+    public int segments;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    @Param({"1", "5"})
+    public int segmentsPerSlice;
+
+    private LabIndex labIndex;
+    private List<String> queries;
+    // Next query to run, the benchmark running on a single thread
+    private int next;
+
+    @Setup
+    public void setup() throws IOException {
+        labIndex = new LabIndex(BenchmarkData.analyzer(analyzerName), Path.of("index-benchmark"),
+                StorageMode.HEAP, SchemaProfile.EVAL_LEAN);
+        if (segments > 1) {
+            labIndex.setIndexingProfile(new IndexingProfile(IndexWriterConfig.DISABLE_AUTO_FLUSH,
+                    (BenchmarkData.corpusDocuments() + segments - 1) / segments, 1, 0));
+        }
+        labIndex.setSearchConcurrency(new SearchConcurrency(threads,
+                SearchConcurrency.DEFAULT_MAX_DOCS_PER_SLICE, segmentsPerSlice));
+        labIndex.index(BenchmarkData.CORPUS);
+        queries = BenchmarkData.queries();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        labIndex.close();
+    }
+
+    @Benchmark
+    public int searchNextQuery() {
+        String query = queries.get(next);
+        next = next + 1 == queries.size() ? 0 : next + 1;
+        return labIndex.search(query).size();
+    }
+}
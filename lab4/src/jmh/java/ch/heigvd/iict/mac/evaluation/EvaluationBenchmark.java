@@ -0,0 +1,44 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Wall time of a full evaluation of one analyzer: building its index and
+ * parsing, running and assessing all the CACM queries, without any cache.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EvaluationBenchmark {
+    @Param({"Standard", "Whitespace", "English", "English with custom stopwords"})
+    public String analyzerName;
+
+    private Analyzer analyzer;
+    private List<String> queries;
+    private Qrels qrels;
+
+    @Setup
+    public void setup() throws IOException {
+        analyzer = BenchmarkData.analyzer(analyzerName);
+        queries = BenchmarkData.queries();
+        qrels = BenchmarkData.qrels();
+    }
+
+    @Benchmark
+    public void evaluate() throws IOException {
+        try (LabIndex labIndex = new LabIndex(analyzer, Path.of("index-benchmark"),
+                StorageMode.HEAP, SchemaProfile.EVAL_LEAN)) {
+            labIndex.index(BenchmarkData.CORPUS);
+            Evaluation.evaluateMetrics(labIndex, queries, qrels, BenchmarkData.NO_OUTPUT);
+        }
+    }
+}
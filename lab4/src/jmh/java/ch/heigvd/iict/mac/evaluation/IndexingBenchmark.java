@@ -0,0 +1,40 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Time to index the whole CACM corpus in memory, per analyzer and schema.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IndexingBenchmark {
+    @Param({"Standard", "Whitespace", "English", "English with custom stopwords"})
+    public String analyzerName;
+
+    @Param({"FULL", "EVAL_LEAN"})
+    public SchemaProfile schemaProfile;
+
+    private Analyzer analyzer;
+
+    @Setup
+    public void setup() throws IOException {
+        analyzer = BenchmarkData.analyzer(analyzerName);
+    }
+
+    @Benchmark
+    public IndexingStats index() throws IOException {
+        try (LabIndex labIndex = new LabIndex(analyzer, Path.of("index-benchmark"),
+                StorageMode.HEAP, schemaProfile)) {
+            return labIndex.index(BenchmarkData.CORPUS);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Indexes of the CACM corpus built in memory per second with each indexing
+ * profile, given as "ram MB:max docs:writers:merge threads". The documents
+ * indexed per second and the flushes, merges and merge time of each
+ * iteration are reported as secondary results.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class IndexingProfileBenchmark {
+    @Param({"English"})
+    public String analyzerName;
+
+    // Colon-separated since JMH splits the -p values on commas
+    @Param({"16:-1:0:0", "1:-1:0:0", "64:-1:0:0", "-1:200:0:0", "-1:200:0:1", "-1:200:2:2"})
+    public String profile;
+
+    private Analyzer analyzer;
+    private IndexingProfile indexingProfile;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Throughput {
+        public long documents;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            documents = 0;
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class WriterEvents {
+        public long flushes;
+        public long merges;
+        public double mergeMillis;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            flushes = 0;
+            merges = 0;
+            mergeMillis = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        analyzer = BenchmarkData.analyzer(analyzerName);
+        indexingProfile = Evaluation.indexingProfile(profile.replace(':', ','));
+    }
+
+    @Benchmark
+    public IndexingStats index(Throughput throughput, WriterEvents events) throws IOException {
+        IndexingStats stats;
+        try (LabIndex labIndex = new LabIndex(analyzer, Path.of("index-benchmark"),
+                StorageMode.HEAP, SchemaProfile.EVAL_LEAN)) {
+            labIndex.setIndexingProfile(indexingProfile);
+            labIndex.setWriterStats(true);
+            stats = labIndex.index(BenchmarkData.CORPUS);
+        }
+        throughput.documents += stats.getDocuments();
+        events.flushes += stats.getFlushes();
+        events.merges += stats.getMerges();
+        events.mergeMillis += stats.getMergeNanos() / 1e6;
+        return stats;
+    }
+}
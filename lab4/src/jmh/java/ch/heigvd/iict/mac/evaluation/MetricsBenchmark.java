@@ -0,0 +1,71 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Metric computation alone, over synthetic rankings and qrels of the size
+ * of CACM (as many documents as the corpus, 15 relevant documents per
+ * query).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+    private static final int RELEVANT_PER_QUERY = 15;
+
+    @Param({"64", "1024"})
+    public int queryCount;
+
+    @Param({"100", "1000", "10000"})
+    public int depth;
+
+    private List<int[]> rankings;
+    private Qrels qrels;
+
+    @Setup
+    public void setup() throws IOException {
+        Random random = new Random(42);
+        int documents = Math.max(BenchmarkData.corpusDocuments(), depth);
+        rankings = new ArrayList<>(queryCount);
+        qrels = new Qrels();
+        for (int query = 1; query <= queryCount; query++) {
+            int[] relevant = new int[RELEVANT_PER_QUERY];
+            for (int i = 0; i < relevant.length; i++) {
+                relevant[i] = 1 + random.nextInt(documents);
+            }
+            qrels.add(query, relevant);
+            rankings.add(randomRanking(random, documents));
+        }
+    }
+
+    // First depth documents of a random permutation of 1..documents
+    private int[] randomRanking(Random random, int documents) {
+        int[] ids = new int[documents];
+        for (int i = 0; i < documents; i++) {
+            ids[i] = i + 1;
+        }
+        for (int i = 0; i < depth; i++) {
+            int j = i + random.nextInt(documents - i);
+            int tmp = ids[i];
+            ids[i] = ids[j];
+            ids[j] = tmp;
+        }
+        int[] ranking = new int[depth];
+        System.arraycopy(ids, 0, ranking, 0, depth);
+        return ranking;
+    }
+
+    @Benchmark
+    public EvaluationMetrics computeMetrics() {
+        return Evaluation.computeMetrics(rankings, qrels);
+    }
+}
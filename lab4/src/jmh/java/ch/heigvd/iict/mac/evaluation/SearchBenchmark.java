@@ -0,0 +1,60 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Latency of the CACM queries on an in-memory index built once per trial,
+ * including their parsing since no parsed query cache is set. By default
+ * an operation runs every query of the query file once, -p queryNumber=N
+ * measures query N alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 2, time = 1)
+@Measurement(iterations = 3, time = 1)
+@Fork(1)
+public class SearchBenchmark {
+    @Param({"Standard", "Whitespace", "English", "English with custom stopwords"})
+    public String analyzerName;
+
+    // 0 for all the queries
+    @Param({"0"})
+    public int queryNumber;
+
+    private LabIndex labIndex;
+    private List<String> queries;
+
+    @Setup
+    public void setup() throws IOException {
+        queries = BenchmarkData.queries();
+        if (queryNumber < 0 || queryNumber > queries.size()) {
+            throw new IllegalArgumentException("The query file has " + queries.size() + " queries: " + queryNumber);
+        }
+        if (queryNumber > 0) {
+            queries = List.of(queries.get(queryNumber - 1));
+        }
+        labIndex = new LabIndex(BenchmarkData.analyzer(analyzerName), Path.of("index-benchmark"),
+                StorageMode.HEAP, SchemaProfile.EVAL_LEAN);
+        labIndex.index(BenchmarkData.CORPUS);
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        labIndex.close();
+    }
+
+    @Benchmark
+    public int search() {
+        int hits = 0;
+        for (String query : queries) {
+            hits += labIndex.search(query).size();
+        }
+        return hits;
+    }
+}
@@ -0,0 +1,30 @@
+package ch.heigvd.iict.mac.evaluation;
+
+/*
+ * How many hits a search counts exactly. Once that many hits are counted,
+ * Lucene is free to skip the documents that cannot enter the top k (block
+ * max WAND). The top k itself is the same in every mode, only the total
+ * hit count becomes a lower bound.
+ */
+public enum CollectionMode {
+    // Every matching document is counted and scored
+    EXACT_COUNT,
+    // Lucene's default: at least 1000 hits, or the depth if it is larger
+    DEFAULT,
+    // Only the top k is collected exhaustively, pruning starts as soon as
+    // the queue is full
+    TOP_K;
+
+    private static final int LUCENE_DEFAULT_THRESHOLD = 1000;
+
+    public int totalHitsThreshold(int depth) {
+        switch (this) {
+            case EXACT_COUNT:
+                return Integer.MAX_VALUE;
+            case TOP_K:
+                return depth;
+            default:
+                return Math.max(depth, LUCENE_DEFAULT_THRESHOLD);
+        }
+    }
+}
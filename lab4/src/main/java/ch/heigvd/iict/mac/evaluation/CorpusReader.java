@@ -0,0 +1,100 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/*
+ * Reads a cacm.txt-style corpus (one document per line, tab-separated
+ * fields) by memory-mapping the file. Lines are found by scanning the
+ * mapped bytes, each one is copied into a CorpusRecord which parses its
+ * fields from byte and char offsets instead of splitting strings.
+ *
+ * Files larger than a mapping are mapped region by region, each region
+ * ending on a line boundary.
+ */
+public class CorpusReader implements Closeable {
+    private static final int MAX_REGION_SIZE = 1 << 30;
+
+    private final FileChannel channel;
+    private final long fileSize;
+    private MappedByteBuffer region;
+    // Position of the region in the file
+    private long regionStart;
+    // Position of the next line in the region
+    private int position;
+
+    public CorpusReader(Path file) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.READ);
+        this.fileSize = channel.size();
+        mapRegion(0);
+    }
+
+    /*
+     * Loads the next non-empty line into the record, returns false at the
+     * end of the file.
+     */
+    public boolean next(CorpusRecord record) throws IOException {
+        while (true) {
+            int limit = region.limit();
+            if (position >= limit) {
+                long next = regionStart + limit;
+                if (next >= fileSize) {
+                    return false;
+                }
+                mapRegion(next);
+                continue;
+            }
+
+            int start = position;
+            int end = start;
+            while (end < limit && region.get(end) != '\n') {
+                end++;
+            }
+            position = end + 1;
+
+            int lineEnd = end;
+            if (lineEnd > start && region.get(lineEnd - 1) == '\r') {
+                lineEnd--;
+            }
+            if (lineEnd > start) {
+                record.load(region, start, lineEnd - start);
+                return true;
+            }
+        }
+    }
+
+    /*
+     * Number of bytes of the file read so far, separators included.
+     */
+    public long getBytesRead() {
+        return Math.min(fileSize, regionStart + position);
+    }
+
+    private void mapRegion(long start) throws IOException {
+        long size = Math.min(MAX_REGION_SIZE, fileSize - start);
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, start, size);
+        int limit = (int) size;
+        if (start + size < fileSize) {
+            // Stop the region after its last complete line
+            while (limit > 0 && mapped.get(limit - 1) != '\n') {
+                limit--;
+            }
+            if (limit == 0) {
+                throw new IOException("Line longer than " + MAX_REGION_SIZE + " bytes at offset " + start);
+            }
+        }
+        mapped.limit(limit);
+        region = mapped;
+        regionStart = start;
+        position = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+}
@@ -0,0 +1,196 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import java.io.CharArrayReader;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.function.Consumer;
+
+/*
+ * One line of the corpus: id, authors, title and summary separated by tabs,
+ * the authors being separated by semicolons. The line bytes are copied by
+ * load() and only decoded and split into fields on first access, so that a
+ * reader thread can hand records to other threads cheaply.
+ *
+ * A record can be reused for the next line once its document has been
+ * added to the index.
+ */
+public class CorpusRecord {
+    private static final byte FIELD_SEPARATOR = '\t';
+    private static final char AUTHOR_SEPARATOR = ';';
+    private static final int ID = 0;
+    private static final int AUTHORS = 1;
+    private static final int TITLE = 2;
+    private static final int SUMMARY = 3;
+    private static final int FIELDS = 4;
+
+    private byte[] bytes = new byte[512];
+    private int byteLength;
+    private char[] chars = new char[512];
+    private final int[] fieldStart = new int[FIELDS];
+    private final int[] fieldEnd = new int[FIELDS];
+    private CharsetDecoder decoder;
+    private boolean parsed;
+
+    /*
+     * Copies the line at [offset, offset + length) of the buffer, without
+     * changing the buffer position.
+     */
+    void load(ByteBuffer buffer, int offset, int length) {
+        if (bytes.length < length) {
+            bytes = new byte[Math.max(length, bytes.length * 2)];
+        }
+        // Bulk copy through a view, the absolute bulk get needs Java 13
+        ByteBuffer view = buffer.duplicate();
+        view.position(offset);
+        view.get(bytes, 0, length);
+        byteLength = length;
+        parsed = false;
+    }
+
+    public int getByteLength() {
+        return byteLength;
+    }
+
+    /*
+     * The id parsed like Integer.parseInt would, without the String.
+     */
+    public int getId() {
+        parse();
+        if (fieldEnd[ID] == fieldStart[ID]) {
+            throw new NumberFormatException("Empty document id");
+        }
+        int id = 0;
+        for (int i = fieldStart[ID]; i < fieldEnd[ID]; i++) {
+            int digit = chars[i] - '0';
+            if (digit < 0 || digit > 9) {
+                throw new NumberFormatException("Invalid document id: " + getIdString());
+            }
+            try {
+                id = Math.addExact(Math.multiplyExact(id, 10), digit);
+            } catch (ArithmeticException e) {
+                throw new NumberFormatException("Document id out of range: " + getIdString());
+            }
+        }
+        return id;
+    }
+
+    public String getIdString() {
+        return field(ID);
+    }
+
+    /*
+     * Gives each non-empty author to the consumer.
+     */
+    public void forEachAuthor(Consumer<String> consumer) {
+        parse();
+        int start = fieldStart[AUTHORS];
+        for (int i = start; i <= fieldEnd[AUTHORS]; i++) {
+            if (i == fieldEnd[AUTHORS] || chars[i] == AUTHOR_SEPARATOR) {
+                if (i > start) {
+                    consumer.accept(new String(chars, start, i - start));
+                }
+                start = i + 1;
+            }
+        }
+    }
+
+    public String getTitle() {
+        return field(TITLE);
+    }
+
+    public boolean hasSummary() {
+        parse();
+        return fieldEnd[SUMMARY] > fieldStart[SUMMARY];
+    }
+
+    public String getSummary() {
+        return field(SUMMARY);
+    }
+
+    /*
+     * Title and summary separated by a space, or the title alone.
+     */
+    public String getContent() {
+        return hasSummary() ? getTitle() + " " + getSummary() : getTitle();
+    }
+
+    public Reader titleReader() {
+        parse();
+        return reader(fieldStart[TITLE], fieldEnd[TITLE]);
+    }
+
+    public Reader summaryReader() {
+        parse();
+        return reader(fieldStart[SUMMARY], fieldEnd[SUMMARY]);
+    }
+
+    /*
+     * Title and summary read straight from the line, where they are
+     * separated by a tab instead of a space. Both are whitespace for the
+     * analyzers, so it is tokenized like getContent().
+     */
+    public Reader contentReader() {
+        parse();
+        int end = hasSummary() ? fieldEnd[SUMMARY] : fieldEnd[TITLE];
+        return reader(fieldStart[TITLE], end);
+    }
+
+    /*
+     * The record must already be parsed, the bounds being read from it.
+     */
+    private Reader reader(int start, int end) {
+        return new CharArrayReader(chars, start, end - start);
+    }
+
+    private String field(int field) {
+        parse();
+        return new String(chars, fieldStart[field], fieldEnd[field] - fieldStart[field]);
+    }
+
+    /*
+     * Decodes the line and finds the field boundaries. The summary is the
+     * rest of the line after the third tab, missing fields are empty.
+     */
+    void parse() {
+        if (parsed) {
+            return;
+        }
+        if (decoder == null) {
+            decoder = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        }
+        if (chars.length < byteLength) {
+            chars = new char[Math.max(byteLength, chars.length * 2)];
+        }
+        CharBuffer out = CharBuffer.wrap(chars);
+        decoder.reset();
+        decoder.decode(ByteBuffer.wrap(bytes, 0, byteLength), out, true);
+        decoder.flush(out);
+        int charLength = out.position();
+
+        int field = 0;
+        fieldStart[0] = 0;
+        for (int i = 0; i < charLength && field < FIELDS - 1; i++) {
+            if (chars[i] == FIELD_SEPARATOR) {
+                fieldEnd[field] = i;
+                field++;
+                fieldStart[field] = i + 1;
+            }
+        }
+        fieldEnd[field] = charLength;
+        for (field++; field < FIELDS; field++) {
+            fieldStart[field] = charLength;
+            fieldEnd[field] = charLength;
+        }
+        // A trailing tab after the summary is not part of it
+        while (fieldEnd[SUMMARY] > fieldStart[SUMMARY] && chars[fieldEnd[SUMMARY] - 1] == FIELD_SEPARATOR) {
+            fieldEnd[SUMMARY]--;
+        }
+        parsed = true;
+    }
+}
@@ -5,16 +5,177 @@ import org.apache.lucene.analysis.CharArraySet;
 import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
 import org.apache.lucene.analysis.en.EnglishAnalyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.search.similarities.AfterEffectB;
+import org.apache.lucene.search.similarities.AxiomaticF2EXP;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.BasicModelIn;
+import org.apache.lucene.search.similarities.ClassicSimilarity;
+import org.apache.lucene.search.similarities.DFRSimilarity;
+import org.apache.lucene.search.similarities.LMDirichletSimilarity;
+import org.apache.lucene.search.similarities.NormalizationH2;
+import org.apache.lucene.search.similarities.Similarity;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 public class Evaluation {
+    // Number of threads used to build each index, -Dindexing.threads=N,
+    // below 4 the parse, build and write stages share their threads
+    private static final int INDEXING_THREADS = Integer.getInteger("indexing.threads", 1);
+    // Threads per stage of the indexing pipeline, overrides indexing.threads,
+    // -Dindexing.pipeline=parse,build,write[,queue capacity[,batch size]]
+    private static final IndexingPipeline.Config INDEXING_PIPELINE = pipelineConfig(
+            System.getProperty("indexing.pipeline"), INDEXING_THREADS);
+    // Writer buffering and merging, -Dindexing.profile=ram MB,max docs[,writers[,merge threads]]
+    // where -1 disables a limit and 0 keeps the default writers and merge threads
+    private static final IndexingProfile INDEXING_PROFILE = indexingProfile(
+            System.getProperty("indexing.profile"));
+    // Whether the flushes and merges of the writer are counted and timed, -Dindexing.writer.stats=true
+    private static final boolean WRITER_STATS = Boolean.getBoolean("indexing.writer.stats");
+    // Whether an on-disk index with the same fingerprint is reused, -Dindex.reuse=false to rebuild.
+    // True by default, unless an in-memory storage is given
+    private static final boolean REUSE_INDEX = reuseIndex(
+            System.getProperty("index.reuse"), System.getProperty("index.storage"));
+    // Where the indexes are kept, -Dindex.storage=fs|mmap|heap|off_heap, mmap by
+    // default so that the indexes can be reused, heap with -Dindex.reuse=false
+    private static final StorageMode STORAGE_MODE = storageMode(
+            System.getProperty("index.storage"), REUSE_INDEX);
+    // Fields written to the indexes, -Dindex.schema=full|eval-lean
+    private static final SchemaProfile SCHEMA_PROFILE = SchemaProfile.valueOf(
+            System.getProperty("index.schema", "eval-lean").toUpperCase().replace('-', '_'));
+    // Segments left once an index is built, 0 for the merge policy's own
+    // layout, -Dindex.merge.segments=N
+    private static final int FORCE_MERGE_SEGMENTS = Integer.getInteger("index.merge.segments", 0);
+    // Order of the documents in the indexes, -Dindex.sort=none|id. A sorted
+    // index is merged to a single segment, overriding index.merge.segments
+    private static final IndexSortOrder SORT_ORDER = IndexSortOrder.valueOf(
+            System.getProperty("index.sort", "none").toUpperCase());
+    // Points of the interpolated precision curve, -Drecall.levels=N for
+    // the levels 0, 1 / (N - 1), ..., 1
+    private static final int RECALL_LEVELS = Integer.getInteger(
+            "recall.levels", QueryMetrics.DEFAULT_RECALL_LEVELS);
+    // Rank metrics computed besides the precision and recall ones,
+    // -Dmetrics=ndcg@10,p@10,recall@100,mrr,bpref,success@10 (the default),
+    // empty for none
+    private static final List<RankMetric> RANK_METRICS = RankMetric.parse(
+            System.getProperty("metrics", "ndcg@10,p@10,recall@100,mrr,bpref,success@10"));
+    // Per-query and aggregate metrics of every analyzer written to a file,
+    // -Dmetrics.export=path.csv|path.json
+    private static final String METRICS_EXPORT = System.getProperty("metrics.export");
+    // Number of documents retrieved per query, -Dretrieval.depth=N
+    private static final int RETRIEVAL_DEPTH = Integer.getInteger("retrieval.depth", 10000);
+    // How exhaustively the hits are collected, -Dcollection.mode=exact_count|default|top_k
+    private static final CollectionMode COLLECTION_MODE = CollectionMode.valueOf(
+            System.getProperty("collection.mode", "top_k").toUpperCase());
+    // Threads searching the segments of a single query and how the segments
+    // are grouped into slices, -Dsearch.threads=N -Dsearch.slice.docs=N
+    // -Dsearch.slice.segments=N
+    private static final SearchConcurrency SEARCH_CONCURRENCY = new SearchConcurrency(
+            Integer.getInteger("search.threads", 1),
+            Integer.getInteger("search.slice.docs", SearchConcurrency.DEFAULT_MAX_DOCS_PER_SLICE),
+            Integer.getInteger("search.slice.segments", SearchConcurrency.DEFAULT_MAX_SEGMENTS_PER_SLICE));
+    // Similarity the indexes are built and searched with, -Dsimilarity=classic|bm25|lm|dfr|axiomatic
+    private static final String SIMILARITY = System.getProperty("similarity", "classic");
+    // Whether every similarity is also evaluated on each index, -Dsimilarity.sweep=true
+    private static final boolean SIMILARITY_SWEEP = Boolean.getBoolean("similarity.sweep");
+    // Whether the sweep runs one similarity at a time to also report its query latency,
+    // -Dsimilarity.sweep.timed=true, with -Danalyzer.threads=1 so that no other analyzer runs meanwhile
+    private static final boolean SIMILARITY_SWEEP_TIMED = Boolean.getBoolean("similarity.sweep.timed");
+    // Whether each analyzer's query latencies are measured, -Dquery.latency=true. The analyzers are
+    // then evaluated one after the other, so that no other search runs while the queries are timed
+    private static final boolean QUERY_LATENCY = Boolean.getBoolean("query.latency");
+    // BM25 grid search on each index, -Dbm25.grid=true, with the grid given by
+    // -Dbm25.grid.k1=min,max,points and -Dbm25.grid.b=min,max,points
+    private static final boolean BM25_GRID = Boolean.getBoolean("bm25.grid");
+    private static final double[] BM25_GRID_K1 = gridValues(System.getProperty("bm25.grid.k1", "0.2,3.0,20"));
+    private static final double[] BM25_GRID_B = gridValues(System.getProperty("bm25.grid.b", "0.0,1.0,20"));
+    // Parsed queries shared by the indexes of an analyzer, -Dquery.cache.size=N
+    private static final ParsedQueryCache QUERY_CACHE = new ParsedQueryCache(
+            Integer.getInteger("query.cache.size", 4096));
+    // Rankings kept between runs, -Dresult.cache.file=path -Dresult.cache.size=N.
+    // The rankings are keyed by the commit of the index, which gets a random id
+    // each time it is built, so the file only hits on a reused index and never
+    // with -Dindex.reuse=false or an in-memory storage
+    private static final String RESULT_CACHE_FILE = System.getProperty("result.cache.file");
+    private static final ResultCache RESULT_CACHE = new ResultCache(
+            Integer.getInteger("result.cache.size", 1024));
+
+    private static boolean reuseIndex(String reuse, String storage) {
+        if (reuse != null) {
+            return Boolean.parseBoolean(reuse);
+        }
+        return storage == null || !StorageMode.valueOf(storage.toUpperCase()).isInMemory();
+    }
+
+    /*
+     * Storage from its name, or the default one. An index kept in memory is
+     * rebuilt on every run, so asking to reuse it is an error rather than
+     * being silently ignored.
+     */
+    static StorageMode storageMode(String storage, boolean reuseIndex) {
+        if (storage == null) {
+            return reuseIndex ? StorageMode.MMAP : StorageMode.HEAP;
+        }
+        StorageMode storageMode = StorageMode.valueOf(storage.toUpperCase());
+        if (reuseIndex && storageMode.isInMemory()) {
+            throw new IllegalArgumentException("An index kept in " + storageMode
+                    + " cannot be reused, use -Dindex.storage=fs|mmap or -Dindex.reuse=false");
+        }
+        return storageMode;
+    }
+
+    /*
+     * Pipeline configuration from "parse,build,write[,queue[,batch]]", or the
+     * default one for the number of threads, null for a single thread.
+     */
+    private static IndexingPipeline.Config pipelineConfig(String spec, int threads) {
+        if (spec == null) {
+            return IndexingPipeline.Config.forThreads(threads);
+        }
+        String[] values = spec.split(",");
+        int parseThreads = Integer.parseInt(values[0].trim());
+        int buildThreads = Integer.parseInt(values[1].trim());
+        int writeThreads = Integer.parseInt(values[2].trim());
+        int queueCapacity = values.length > 3
+                ? Integer.parseInt(values[3].trim())
+                : 2 * (1 + parseThreads + buildThreads + writeThreads);
+        int batchSize = values.length > 4 ? Integer.parseInt(values[4].trim()) : 256;
+        return new IndexingPipeline.Config(parseThreads, buildThreads, writeThreads,
+                queueCapacity, batchSize);
+    }
+
+    /*
+     * Indexing profile from "ram,docs[,writers[,merges]]", Lucene's defaults
+     * if the spec is null.
+     */
+    static IndexingProfile indexingProfile(String spec) {
+        if (spec == null) {
+            return IndexingProfile.DEFAULT;
+        }
+        String[] values = spec.split(",");
+        double ramBufferSizeMB = Double.parseDouble(values[0].trim());
+        int maxBufferedDocs = Integer.parseInt(values[1].trim());
+        int writerThreads = values.length > 2 ? Integer.parseInt(values[2].trim()) : 0;
+        int mergeThreads = values.length > 3 ? Integer.parseInt(values[3].trim()) : 0;
+        return new IndexingProfile(ramBufferSizeMB, maxBufferedDocs, writerThreads, mergeThreads);
+    }
+
     private static void readFile(String filename, Function<String, Void> parseLine)
             throws IOException {
         try (BufferedReader br = new BufferedReader(
@@ -36,7 +197,7 @@ public class Evaluation {
     /*
      * Reading CACM queries and creating a list of queries.
      */
-    private static List<String> readingQueries() throws IOException {
+    static List<String> readingQueries() throws IOException {
         final String QUERY_SEPARATOR = "\t";
 
         List<String> queries = new ArrayList<>();
@@ -52,7 +213,7 @@ public class Evaluation {
     /*
      * Reading stopwords
      */
-    private static List<String> readingCommonWords() throws IOException {
+    static List<String> readingCommonWords() throws IOException {
         List<String> commonWords = new ArrayList<>();
 
         readFile("common_words.txt", line -> {
@@ -64,85 +225,326 @@ public class Evaluation {
 
 
     /*
-     * Reading CACM qrels and creating a map that contains list of relevant
-     * documents per query.
+     * Reading CACM qrels and creating the sorted list of relevant documents
+     * per query.
      */
-    private static Map<Integer, List<Integer>> readingQrels() throws IOException {
+    static Qrels readingQrels() throws IOException {
         final String QREL_SEPARATOR = ";";
         final String DOC_SEPARATOR = ",";
 
-        Map<Integer, List<Integer>> qrels = new HashMap<>();
+        Qrels qrels = new Qrels();
 
         readFile("evaluation/qrels.txt", line -> {
             String[] qrel = line.split(QREL_SEPARATOR);
             int query = Integer.parseInt(qrel[0]);
 
-            List<Integer> docs = qrels.get(query);
-            if (docs == null) {
-                docs = new ArrayList<>();
-            }
-
             String[] docsArray = qrel[1].split(DOC_SEPARATOR);
-            for (String doc : docsArray) {
-                docs.add(Integer.parseInt(doc));
+            int[] docs = new int[docsArray.length];
+            for (int i = 0; i < docsArray.length; i++) {
+                docs[i] = Integer.parseInt(docsArray[i]);
             }
 
-            qrels.put(query, docs);
+            qrels.add(query, docs);
             return null;
         });
         return qrels;
     }
 
-    public static void main(String[] args) throws IOException {
+    public static void main(String[] args)
+            throws IOException, InterruptedException, ExecutionException {
         ///
         /// Reading queries and queries relations files
         ///
         List<String> queries = readingQueries();
         System.out.println("Number of queries: " + queries.size());
 
-        Map<Integer, List<Integer>> qrels = readingQrels();
+        Qrels qrels = readingQrels();
         System.out.println("Number of qrels: " + qrels.size());
 
-        double avgQrels = 0.0;
-        for (List<Integer> rels : qrels.values()) {
-            avgQrels += rels.size();
-        }
-        avgQrels /= qrels.size();
+        double avgQrels = qrels.averageRelevantCount();
         System.out.println("Average number of relevant docs per query: " + avgQrels);
 
         List<String> commonWords = readingCommonWords();
 
+        if (RESULT_CACHE_FILE != null) {
+            RESULT_CACHE.load(Path.of(RESULT_CACHE_FILE));
+        }
+
         ///
         ///  Part I - Create the analyzers
         ///
-        var analyzers = List.of(
+        var analyzers = createAnalyzers(commonWords);
+
+        // Each analyzer has its own index, so they are all evaluated in
+        // parallel, unless the latencies are measured. Reports are printed in
+        // the analyzers order. The cores are shared between the analyzers
+        // running at the same time, so that their searches do not add up to
+        // more threads than cores.
+        Map<String, EvaluationMetrics> analyzerMetrics = new ConcurrentHashMap<>();
+        int analyzerThreads = QUERY_LATENCY
+                ? 1 : Math.max(1, Integer.getInteger("analyzer.threads", analyzers.size()));
+        int searchThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / analyzerThreads);
+        ExecutorService executor = Executors.newFixedThreadPool(analyzerThreads);
+        try {
+            List<Future<String>> reports = new ArrayList<>();
+            for (NamedAnalyzer na : analyzers) {
+                reports.add(executor.submit(() -> evaluateAnalyzer(na, queries, qrels, searchThreads,
+                        analyzerMetrics)));
+            }
+            for (Future<String> report : reports) {
+                System.out.print(report.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        if (METRICS_EXPORT != null) {
+            MetricsExporter exporter = new MetricsExporter();
+            for (NamedAnalyzer na : analyzers) {
+                EvaluationMetrics metrics = analyzerMetrics.get(na.getAnalyzerName());
+                if (metrics != null) {
+                    exporter.add(na.getAnalyzerName(), metrics);
+                }
+            }
+            exporter.write(Path.of(METRICS_EXPORT));
+        }
+
+        System.out.println();
+        System.out.println("Parsed query cache: " + QUERY_CACHE);
+        System.out.println("Result cache: " + RESULT_CACHE);
+        if (RESULT_CACHE_FILE != null) {
+            RESULT_CACHE.save(Path.of(RESULT_CACHE_FILE));
+        }
+    }
+
+    static List<NamedAnalyzer> createAnalyzers(List<String> commonWords) {
+        return List.of(
               new NamedAnalyzer("Standard", new StandardAnalyzer()),
               new NamedAnalyzer("Whitespace", new WhitespaceAnalyzer()),
               new NamedAnalyzer("English", new EnglishAnalyzer()),
               new NamedAnalyzer("English with custom stopwords",
                       new EnglishAnalyzer(new CharArraySet(commonWords, true)))
         );
+    }
+
+    /*
+     * Similarities of the sweep, BM25 is tuned with -Dbm25.k1 and -Dbm25.b.
+     */
+    static List<NamedSimilarity> createSimilarities() {
+        float k1 = Float.parseFloat(System.getProperty("bm25.k1", "1.2"));
+        float b = Float.parseFloat(System.getProperty("bm25.b", "0.75"));
+        return List.of(
+              new NamedSimilarity("Classic", new ClassicSimilarity()),
+              new NamedSimilarity(String.format("BM25 (k1=%s, b=%s)", k1, b), new BM25Similarity(k1, b)),
+              new NamedSimilarity("LM Dirichlet", new LMDirichletSimilarity()),
+              new NamedSimilarity("DFR I(n)B2", new DFRSimilarity(
+                      new BasicModelIn(), new AfterEffectB(), new NormalizationH2())),
+              new NamedSimilarity("Axiomatic F2EXP", new AxiomaticF2EXP())
+        );
+    }
+
+    /*
+     * Similarity whose name starts with the given one, ignoring the case.
+     */
+    private static Similarity findSimilarity(String name) {
+        for (NamedSimilarity ns : createSimilarities()) {
+            if (ns.getSimilarityName().toLowerCase().startsWith(name.toLowerCase())) {
+                return ns.getSimilarity();
+            }
+        }
+        throw new IllegalArgumentException("Unknown similarity: " + name);
+    }
+
+    /*
+     * Builds the index of the analyzer and evaluates it, returning the report
+     * instead of printing it so that analyzers can run concurrently. Its
+     * metrics are put in the map under the analyzer name for the export.
+     * Its searches use at most searchThreads threads at a time.
+     */
+    private static String evaluateAnalyzer(NamedAnalyzer na, List<String> queries, Qrels qrels,
+                                           int searchThreads, Map<String, EvaluationMetrics> analyzerMetrics)
+            throws Exception {
+        String analyzerName = na.getAnalyzerName();
+        Analyzer analyzer = na.getAnalyzer();
+
+        ByteArrayOutputStream report = new ByteArrayOutputStream();
+        PrintStream out = new PrintStream(report, true, StandardCharsets.UTF_8);
+
+        if (analyzer == null) {
+            System.err.printf("The analyzer \"%s\" has not been implemented%n", analyzerName);
+        } else {
+            out.printf("%n=== Using analyzer: %s%n", analyzerName);
+            out.println("Schema profile: " + SCHEMA_PROFILE);
+            out.println("Index sort: " + SORT_ORDER);
+            out.printf("Retrieval depth: %d (%s)%n", RETRIEVAL_DEPTH, COLLECTION_MODE);
+            out.println("Search concurrency: " + SEARCH_CONCURRENCY);
+
+            ///
+            ///  Part I - Create the index
+            ///
+            Path indexPath = FileSystems.getDefault().getPath(na.getIndexName());
+            Similarity similarity = findSimilarity(SIMILARITY);
+            out.println("Similarity: " + similarity);
+            try (LabIndex labIndex = new LabIndex(analyzer, indexPath, STORAGE_MODE, SCHEMA_PROFILE,
+                    similarity)) {
+                labIndex.setRetrievalDepth(RETRIEVAL_DEPTH);
+                labIndex.setCollectionMode(COLLECTION_MODE);
+                labIndex.setResultCache(RESULT_CACHE);
+                labIndex.setQueryCache(QUERY_CACHE);
+                labIndex.setReuseExistingIndex(REUSE_INDEX);
+                labIndex.setSearchConcurrency(SEARCH_CONCURRENCY);
+                labIndex.setIndexingProfile(INDEXING_PROFILE);
+                labIndex.setWriterStats(WRITER_STATS);
+                labIndex.setForceMergeSegments(FORCE_MERGE_SEGMENTS);
+                labIndex.setSortOrder(SORT_ORDER);
+                labIndex.index("documents/cacm.txt", INDEXING_PIPELINE).print(out);
+                analyzerMetrics.put(analyzerName, evaluateMetrics(labIndex, queries, qrels, searchThreads,
+                        out));
+                if (QUERY_LATENCY) {
+                    timeQueries(labIndex, queries, na.getLatencies(), out);
+                }
+                if (SIMILARITY_SWEEP) {
+                    sweepSimilarities(labIndex, queries, qrels, searchThreads, out);
+                }
+                if (BM25_GRID) {
+                    bm25GridSearch(labIndex, queries, qrels, searchThreads, out);
+                }
+            }
+        }
+        out.flush();
+        return report.toString(StandardCharsets.UTF_8);
+    }
+
+    /*
+     * Times the queries run one at a time, after an untimed pass warming
+     * up the index and the JIT, and with the analyzers evaluated one after
+     * the other, so that the latency is the one of a query alone. The
+     * result cache is bypassed so that the searches are really done.
+     */
+    private static void timeQueries(LabIndex labIndex, List<String> queries, LatencyHistogram latencies,
+                                    PrintStream out) {
+        labIndex.searchAll(queries, null, 1, false);
+        labIndex.setLatencies(latencies);
+        try {
+            labIndex.searchAll(queries, null, 1, false);
+        } finally {
+            labIndex.setLatencies(null);
+        }
+        out.println("Query latency (one query at a time after a warmup, search "
+                + labIndex.getSearchConcurrency() + "): " + latencies);
+    }
 
-        for(NamedAnalyzer na : analyzers) {
-            String analyzerName = na.getAnalyzerName();
-            Analyzer analyzer = na.getAnalyzer();
-
-            if (analyzer == null) {
-                System.err.printf("The analyzer \"%s\" has not been implemented%n", analyzerName);
-            } else {
-                System.out.printf("%n=== Using analyzer: %s%n", analyzerName);
-
-                ///
-                ///  Part I - Create the index
-                ///
-                LabIndex labIndex = new LabIndex(analyzer);
-                labIndex.index("documents/cacm.txt");
-                evaluateMetrics(labIndex, queries, qrels);
+    /*
+     * Evaluates every similarity on the index without rebuilding it. The
+     * similarities run concurrently through searchWithEach and only their
+     * MAP is reported, a latency taken while they share the cores would not
+     * be the one of a query. Timed, they run one after the other, each one
+     * running its queries one after the other. The result cache is bypassed
+     * so that the searches are really done.
+     */
+    private static void sweepSimilarities(LabIndex labIndex, List<String> queries, Qrels qrels,
+                                          int searchThreads, PrintStream out)
+            throws IOException, InterruptedException, ExecutionException {
+        List<NamedSimilarity> similarities = createSimilarities();
+        out.println("Similarity sweep:");
+        if (!SIMILARITY_SWEEP_TIMED) {
+            List<Similarity> toSearch = similarities.stream()
+                    .map(NamedSimilarity::getSimilarity)
+                    .collect(Collectors.toList());
+            List<Double> maps = labIndex.searchWithEach(queries, toSearch, searchThreads,
+                    results -> computeMetrics(results, qrels).getMeanAveragePrecision());
+            for (int i = 0; i < similarities.size(); i++) {
+                out.printf("\t%-24s MAP: %.4f%n", similarities.get(i).getSimilarityName(), maps.get(i));
             }
+            return;
+        }
+        for (NamedSimilarity ns : similarities) {
+            long start = System.nanoTime();
+            List<int[]> results = labIndex.searchAll(queries, ns.getSimilarity(), 1, false);
+            double latencyMs = (System.nanoTime() - start) / 1e6 / queries.size();
+            EvaluationMetrics metrics = computeMetrics(results, qrels);
+            out.printf("\t%-24s MAP: %.4f, average query latency: %.3f ms%n",
+                    ns.getSimilarityName(), metrics.getMeanAveragePrecision(), latencyMs);
         }
     }
 
-    private static void evaluateMetrics(LabIndex labIndex, List<String> queries, Map<Integer, List<Integer>> qrels) {
+    /*
+     * MAP of BM25 for every (k1, b) of the grid, all the points being
+     * evaluated in parallel over the same reader. Prints the MAP surface
+     * with k1 in rows and b in columns, and the best point.
+     */
+    private static void bm25GridSearch(LabIndex labIndex, List<String> queries, Qrels qrels,
+                                       int searchThreads, PrintStream out) throws IOException, InterruptedException, ExecutionException {
+        double[] k1Values = BM25_GRID_K1;
+        double[] bValues = BM25_GRID_B;
+
+        List<BM25Similarity> similarities = new ArrayList<>();
+        for (double k1 : k1Values) {
+            for (double b : bValues) {
+                similarities.add(new BM25Similarity((float) k1, (float) b));
+            }
+        }
+
+        long start = System.nanoTime();
+        List<Double> maps = labIndex.searchWithEach(queries, similarities, searchThreads,
+                results -> computeMetrics(results, qrels).getMeanAveragePrecision());
+        double seconds = (System.nanoTime() - start) / 1e9;
+
+        out.printf("BM25 grid search: %d points in %.2f s, MAP by k1 (rows) and b (columns):%n",
+                similarities.size(), seconds);
+        out.printf("\t%6s", "k1\\b");
+        for (double b : bValues) {
+            out.printf(" %6.3f", b);
+        }
+        out.println();
+        int best = 0;
+        for (int i = 0; i < k1Values.length; i++) {
+            out.printf("\t%6.3f", k1Values[i]);
+            for (int j = 0; j < bValues.length; j++) {
+                int point = i * bValues.length + j;
+                out.printf(" %6.4f", maps.get(point));
+                if (maps.get(point) > maps.get(best)) {
+                    best = point;
+                }
+            }
+            out.println();
+        }
+        out.printf("Best BM25: k1=%.3f, b=%.3f, MAP: %.4f%n",
+                k1Values[best / bValues.length], bValues[best % bValues.length], maps.get(best));
+    }
+
+    /*
+     * Evenly spaced values from "min,max,points", just min for a single
+     * point.
+     */
+    static double[] gridValues(String spec) {
+        String[] values = spec.split(",");
+        if (values.length != 3) {
+            throw new IllegalArgumentException("The grid must be given as min,max,points: " + spec);
+        }
+        double min = Double.parseDouble(values[0].trim());
+        double max = Double.parseDouble(values[1].trim());
+        int points = Integer.parseInt(values[2].trim());
+        if (points < 1) {
+            throw new IllegalArgumentException("The grid needs at least one point: " + spec);
+        }
+        if (!(min <= max)) {
+            throw new IllegalArgumentException("The grid minimum cannot exceed its maximum: " + spec);
+        }
+        double[] grid = new double[points];
+        for (int i = 0; i < points; i++) {
+            grid[i] = points == 1 ? min : min + (max - min) * i / (points - 1);
+        }
+        return grid;
+    }
+
+    static EvaluationMetrics evaluateMetrics(LabIndex labIndex, List<String> queries,
+                                Qrels qrels, PrintStream out) {
+        return evaluateMetrics(labIndex, queries, qrels, Runtime.getRuntime().availableProcessors(), out);
+    }
+
+    static EvaluationMetrics evaluateMetrics(LabIndex labIndex, List<String> queries,
+                                Qrels qrels, int searchThreads, PrintStream out) {
         ///
         ///  Part II and III:
         ///  Execute the queries and assess the performance of the
@@ -150,9 +552,42 @@ public class Evaluation {
         ///  precision, recall,...
         ///
 
+        // Running all the queries at once, results are in the queries order
+        long start = System.nanoTime();
+        List<int[]> allQueryResults = labIndex.searchAll(queries, searchThreads);
+        double seconds = (System.nanoTime() - start) / 1e9;
+        out.printf("Search time: %.3f s for %d queries (%.1f queries/s)%n",
+                seconds, queries.size(), queries.size() / seconds);
+
+        EvaluationMetrics metrics = computeMetrics(allQueryResults, qrels);
+
+        ///
+        ///  Part IV - Display the metrics
+        ///
+        displayMetrics(out, metrics);
+        return metrics;
+    }
+
+    /*
+     * Computes the metrics of the rankings, the i-th ranking being the
+     * result of the query number i + 1, with the precision interpolated at
+     * -Drecall.levels levels and the -Dmetrics rank metrics. The queries are
+     * evaluated independently in parallel, their metrics are then summed in
+     * the query order so that the averages do not depend on the scheduling.
+     */
+    static EvaluationMetrics computeMetrics(List<int[]> allQueryResults, Qrels qrels) {
+        return computeMetrics(allQueryResults, qrels, RECALL_LEVELS, RANK_METRICS);
+    }
+
+    static EvaluationMetrics computeMetrics(List<int[]> allQueryResults, Qrels qrels, int recallLevels,
+                                            List<RankMetric> rankMetrics) {
+        List<QueryMetrics> queryMetrics = IntStream.range(0, allQueryResults.size())
+                .parallel()
+                .mapToObj(i -> QueryMetrics.compute(i + 1, allQueryResults.get(i), qrels, recallLevels,
+                        rankMetrics))
+                .collect(Collectors.toList());
 
         // Variables used for query set.
-        int queryNumber = 0;
         int totalRelevantDocs = 0;
         int totalRetrievedDocs = 0;
         int totalRetrievedRelevantDocs = 0;
@@ -162,128 +597,74 @@ public class Evaluation {
         double meanAveragePrecision = 0.0;
         double fMeasure = 0.0;
 
-        // average precision at the 11 recall levels (0,0.1,0.2,...,1) over all queries
-        double[] avgPrecisionAtRecallLevels = createZeroedRecalls();
-
-        // For each query
-        for (String query : queries) {
-
-            // Getting query retrieved documents
-            List<Integer> queryResults = labIndex.search(query);
-            // Getting query really relevant documents
-            List<Integer> qrelResults = ( qrels.get(queryNumber + 1) == null ? new LinkedList<>() : qrels.get(queryNumber + 1) );
+        // average precision at the recall levels (0,0.1,0.2,...,1 by default) over all queries
+        double[] avgPrecisionAtRecallLevels = new double[recallLevels];
+        double[] avgRankMetrics = new double[rankMetrics.size()];
 
+        for (QueryMetrics query : queryMetrics) {
+            meanAveragePrecision += query.getAveragePrecision();
 
-            int queryRetrievedDocs = queryResults.size();
-            int queryRelevantDocs = qrelResults.size();
-            int queryRetrievedRelevantDocs = 0;
+            totalRetrievedDocs += query.getRetrievedDocs();
+            totalRelevantDocs += query.getRelevantDocs();
+            totalRetrievedRelevantDocs += query.getRetrievedRelevantDocs();
 
-            double queryAveragePrecision = 0;
-            double queryRPrecision = 0;
-            double[] queryPrecisionAtRecallLevels = createZeroedRecalls();
+            avgPrecision += query.getPrecision();
+            avgRecall += query.getRecall();
 
-            // For each retrieved documents.
-            for( int retrievedDocI = 0 ; retrievedDocI < queryResults.size() ; retrievedDocI++)
-            {
-                // AP
-                // Is the retrieved document a relevant document ?
-                if(qrelResults.contains(queryResults.get(retrievedDocI))) {
-                    queryRetrievedRelevantDocs++;
-                    queryAveragePrecision += ( (double)queryRetrievedRelevantDocs /  (retrievedDocI + 1.));
-                }
-
-                // R-Precision
-                // When we have "parsed" as much retrieved documents as the number of relevant documents
-                if ( queryRelevantDocs > 0 && retrievedDocI == (queryRelevantDocs - 1) ) {
-                    queryRPrecision = (double) queryRetrievedRelevantDocs / (double) queryRelevantDocs;
-                }
+            avgRPrecision += query.getRPrecision();
 
-                // Interpolated precision
-                // Recall at the time of the current document
-                double localRecall = ( queryRelevantDocs == 0 ? 0 : (double) queryRetrievedRelevantDocs / (double)queryRelevantDocs);
-                // Precision at the time of the current document
-                double localPrecision = (double) queryRetrievedRelevantDocs / ( retrievedDocI + 1.);
-                for( int i = 0; i <= 10 && (((double) i / 10 ) <= localRecall); i++) {
-                    if(localPrecision > queryPrecisionAtRecallLevels[i]) {
-                        queryPrecisionAtRecallLevels[i] = localPrecision;
-                    }
-                }
+            for (int i = 0; i < recallLevels; i++) {
+                avgPrecisionAtRecallLevels[i] += query.getPrecisionAtRecallLevel(i);
             }
-            // If no relevant documents, we set query AP to 0 else the usual formula is used.
-            meanAveragePrecision += ( queryRelevantDocs == 0 ? 0 : queryAveragePrecision / queryRelevantDocs);
-
-            totalRetrievedDocs += queryRetrievedDocs;
-            totalRelevantDocs += queryRelevantDocs;
-            totalRetrievedRelevantDocs += queryRetrievedRelevantDocs;
-
-            // If there is no retrieved documents, precision = 0 else precision = usual formula
-            avgPrecision += ( queryRetrievedDocs == 0 ? 0 : (double) queryRetrievedRelevantDocs / (double) queryRetrievedDocs );
-            // If there is no relevant documents, recall = 0 else recall = usual formula
-            avgRecall += ( queryRelevantDocs  == 0 ? 0 : (double) queryRetrievedRelevantDocs / (double) queryRelevantDocs );
-
-            avgRPrecision += queryRPrecision;
-
-            for(int i = 0; i <= 10; i++) {
-                avgPrecisionAtRecallLevels[i] += queryPrecisionAtRecallLevels[i];
+            for (int i = 0; i < avgRankMetrics.length; i++) {
+                avgRankMetrics[i] += query.getRankMetric(i);
             }
-
-            queryNumber++;
         }
 
-        avgPrecision /= queries.size();
-        avgRecall /= queries.size();
+        avgPrecision /= allQueryResults.size();
+        avgRecall /= allQueryResults.size();
 
         fMeasure = (2 * avgPrecision * avgRecall) / (avgPrecision + avgRecall);
 
-        avgRPrecision /= queries.size();
-        meanAveragePrecision /= queries.size();
+        avgRPrecision /= allQueryResults.size();
+        meanAveragePrecision /= allQueryResults.size();
 
-        for(int i = 0; i <= 10; i++) {
-            avgPrecisionAtRecallLevels[i] /= queries.size();
+        for (int i = 0; i < recallLevels; i++) {
+            avgPrecisionAtRecallLevels[i] /= allQueryResults.size();
+        }
+        for (int i = 0; i < avgRankMetrics.length; i++) {
+            avgRankMetrics[i] /= allQueryResults.size();
         }
 
-        ///
-        ///  Part IV - Display the metrics
-        ///
-        displayMetrics(totalRetrievedDocs, totalRelevantDocs,
+        return new EvaluationMetrics(totalRetrievedDocs, totalRelevantDocs,
                 totalRetrievedRelevantDocs, avgPrecision, avgRecall, fMeasure,
                 meanAveragePrecision, avgRPrecision,
-                avgPrecisionAtRecallLevels);
+                avgPrecisionAtRecallLevels, rankMetrics, avgRankMetrics, queryMetrics);
     }
 
-    private static void displayMetrics(
-            int totalRetrievedDocs,
-            int totalRelevantDocs,
-            int totalRetrievedRelevantDocs,
-            double avgPrecision,
-            double avgRecall,
-            double fMeasure,
-            double meanAveragePrecision,
-            double avgRPrecision,
-            double[] avgPrecisionAtRecallLevels
-    ) {
-        System.out.println("Number of retrieved documents: " + totalRetrievedDocs);
-        System.out.println("Number of relevant documents: " + totalRelevantDocs);
-        System.out.println("Number of relevant documents retrieved: " + totalRetrievedRelevantDocs);
+    private static void displayMetrics(PrintStream out, EvaluationMetrics metrics) {
+        out.println("Number of retrieved documents: " + metrics.getTotalRetrievedDocs());
+        out.println("Number of relevant documents: " + metrics.getTotalRelevantDocs());
+        out.println("Number of relevant documents retrieved: " + metrics.getTotalRetrievedRelevantDocs());
 
-        System.out.println("Average precision: " + avgPrecision);
-        System.out.println("Average recall: " + avgRecall);
+        out.println("Average precision: " + metrics.getAvgPrecision());
+        out.println("Average recall: " + metrics.getAvgRecall());
 
-        System.out.println("F-measure: " + fMeasure);
+        out.println("F-measure: " + metrics.getFMeasure());
 
-        System.out.println("MAP: " + meanAveragePrecision);
+        out.println("MAP: " + metrics.getMeanAveragePrecision());
 
-        System.out.println("Average R-Precision: " + avgRPrecision);
+        out.println("Average R-Precision: " + metrics.getAvgRPrecision());
 
-        System.out.println("Average precision at recall levels: ");
-        for (int i = 0; i < avgPrecisionAtRecallLevels.length; i++) {
-            System.out.printf("\t%s: %s%n", i, avgPrecisionAtRecallLevels[i]);
+        List<RankMetric> rankMetrics = metrics.getRankMetrics();
+        for (int i = 0; i < rankMetrics.size(); i++) {
+            out.println(rankMetrics.get(i) + ": " + metrics.getAvgRankMetric(i));
         }
-    }
 
-    private static double[] createZeroedRecalls() {
-        double[] recalls = new double[11];
-        Arrays.fill(recalls, 0.0);
-        return recalls;
+        double[] avgPrecisionAtRecallLevels = metrics.getAvgPrecisionAtRecallLevels();
+        out.println("Average precision at recall levels: ");
+        for (int i = 0; i < avgPrecisionAtRecallLevels.length; i++) {
+            out.printf("\t%s: %s%n", i, avgPrecisionAtRecallLevels[i]);
+        }
     }
 }
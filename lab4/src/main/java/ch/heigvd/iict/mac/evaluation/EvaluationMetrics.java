@@ -0,0 +1,96 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import java.util.List;
+
+/*
+ * Metrics of a query set, as computed by Evaluation.computeMetrics.
+ * Immutable, the arrays and lists are copied in and the arrays out.
+ */
+public class EvaluationMetrics {
+    private final int totalRetrievedDocs;
+    private final int totalRelevantDocs;
+    private final int totalRetrievedRelevantDocs;
+    private final double avgPrecision;
+    private final double avgRecall;
+    private final double fMeasure;
+    private final double meanAveragePrecision;
+    private final double avgRPrecision;
+    private final double[] avgPrecisionAtRecallLevels;
+    private final List<RankMetric> rankMetrics;
+    private final double[] avgRankMetrics;
+    private final List<QueryMetrics> queries;
+
+    public EvaluationMetrics(int totalRetrievedDocs, int totalRelevantDocs,
+                             int totalRetrievedRelevantDocs, double avgPrecision,
+                             double avgRecall, double fMeasure, double meanAveragePrecision,
+                             double avgRPrecision, double[] avgPrecisionAtRecallLevels,
+                             List<RankMetric> rankMetrics, double[] avgRankMetrics,
+                             List<QueryMetrics> queries) {
+        this.totalRetrievedDocs = totalRetrievedDocs;
+        this.totalRelevantDocs = totalRelevantDocs;
+        this.totalRetrievedRelevantDocs = totalRetrievedRelevantDocs;
+        this.avgPrecision = avgPrecision;
+        this.avgRecall = avgRecall;
+        this.fMeasure = fMeasure;
+        this.meanAveragePrecision = meanAveragePrecision;
+        this.avgRPrecision = avgRPrecision;
+        this.avgPrecisionAtRecallLevels = avgPrecisionAtRecallLevels.clone();
+        this.rankMetrics = List.copyOf(rankMetrics);
+        this.avgRankMetrics = avgRankMetrics.clone();
+        this.queries = List.copyOf(queries);
+    }
+
+    public int getTotalRetrievedDocs() {
+        return totalRetrievedDocs;
+    }
+
+    public int getTotalRelevantDocs() {
+        return totalRelevantDocs;
+    }
+
+    public int getTotalRetrievedRelevantDocs() {
+        return totalRetrievedRelevantDocs;
+    }
+
+    public double getAvgPrecision() {
+        return avgPrecision;
+    }
+
+    public double getAvgRecall() {
+        return avgRecall;
+    }
+
+    public double getFMeasure() {
+        return fMeasure;
+    }
+
+    public double getMeanAveragePrecision() {
+        return meanAveragePrecision;
+    }
+
+    public double getAvgRPrecision() {
+        return avgRPrecision;
+    }
+
+    public double[] getAvgPrecisionAtRecallLevels() {
+        return avgPrecisionAtRecallLevels.clone();
+    }
+
+    public List<RankMetric> getRankMetrics() {
+        return rankMetrics;
+    }
+
+    /*
+     * Average over the queries of the i-th rank metric.
+     */
+    public double getAvgRankMetric(int i) {
+        return avgRankMetrics[i];
+    }
+
+    /*
+     * Metrics of each query, in the query order.
+     */
+    public List<QueryMetrics> getQueries() {
+        return queries;
+    }
+}
@@ -0,0 +1,161 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.custom.CustomAnalyzer;
+import org.apache.lucene.analysis.util.AbstractAnalysisFactory;
+import org.apache.lucene.search.similarities.Similarity;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/*
+ * Hash of everything an index depends on: the corpus file, the analyzer
+ * configuration (see describe(Analyzer)), the schema profile, the indexing
+ * similarity and how it encodes the norms, and the segment layout. An index
+ * with the same fingerprint can be reused instead of being rebuilt.
+ */
+public final class IndexFingerprint {
+    // To be increased whenever the documents written by LabIndex change
+    private static final int FORMAT_VERSION = 2;
+
+    private IndexFingerprint() {
+    }
+
+    /*
+     * The analyzer key, if not null, is hashed with the analyzer description
+     * for the analyzers whose configuration describe() cannot see.
+     */
+    public static String compute(Path corpus, Analyzer analyzer, String analyzerKey, SchemaProfile schemaProfile,
+                                 Similarity similarity, int maxSegments, IndexSortOrder sortOrder)
+            throws IOException {
+        MessageDigest digest = sha256();
+        update(digest, "format=" + FORMAT_VERSION);
+
+        try (InputStream in = Files.newInputStream(corpus)) {
+            byte[] buffer = new byte[64 * 1024];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, read);
+            }
+        }
+
+        update(digest, "analyzer=" + describe(analyzer));
+        update(digest, "analyzerKey=" + analyzerKey);
+        update(digest, "schema=" + schemaProfile);
+        // The norms are encoded at indexing time, depending on whether the
+        // overlapping tokens count
+        update(digest, "similarity=" + similarity.getClass().getName()
+                + " discountOverlaps=" + LabIndex.discountOverlaps(similarity));
+        update(digest, "segments=" + maxSegments);
+        update(digest, "sort=" + sortOrder);
+
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest()) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /*
+     * Class, version and configuration of the analyzer. A CustomAnalyzer is
+     * described by its factories and their arguments. Any other analyzer is
+     * described by the fields its classes add to Analyzer, e.g. the
+     * stopwords and stem exclusions of EnglishAnalyzer. The values are
+     * described in an order-independent way. A field holding some other
+     * object, like a lambda building the components, only contributes its
+     * class: such analyzers need an analyzer key.
+     */
+    static String describe(Analyzer analyzer) {
+        StringBuilder description = new StringBuilder(analyzer.getClass().getName())
+                .append(" version=").append(analyzer.getVersion());
+        if (analyzer instanceof CustomAnalyzer) {
+            CustomAnalyzer custom = (CustomAnalyzer) analyzer;
+            for (AbstractAnalysisFactory factory : custom.getCharFilterFactories()) {
+                description.append(" charFilter=").append(describeFactory(factory));
+            }
+            description.append(" tokenizer=").append(describeFactory(custom.getTokenizerFactory()));
+            for (AbstractAnalysisFactory factory : custom.getTokenFilterFactories()) {
+                description.append(" tokenFilter=").append(describeFactory(factory));
+            }
+            description.append(" positionIncrementGap=").append(custom.getPositionIncrementGap(null))
+                    .append(" offsetGap=").append(custom.getOffsetGap(null));
+            return description.toString();
+        }
+        for (Class<?> type = analyzer.getClass(); type != Analyzer.class; type = type.getSuperclass()) {
+            for (Field field : type.getDeclaredFields()) {
+                if (Modifier.isStatic(field.getModifiers())) {
+                    continue;
+                }
+                description.append(' ').append(type.getSimpleName()).append('.')
+                        .append(field.getName()).append('=');
+                try {
+                    field.setAccessible(true);
+                    description.append(describeValue(field.get(analyzer)));
+                } catch (ReflectiveOperationException | RuntimeException e) {
+                    description.append('?');
+                }
+            }
+        }
+        return description.toString();
+    }
+
+    private static String describeFactory(AbstractAnalysisFactory factory) {
+        return factory.getClass().getName() + new TreeMap<>(factory.getOriginalArgs());
+    }
+
+    private static String describeValue(Object value) {
+        if (value == null || value instanceof CharSequence || value instanceof Number
+                || value instanceof Boolean || value instanceof Character || value instanceof Enum) {
+            return String.valueOf(value);
+        }
+        if (value instanceof char[]) {
+            return new String((char[]) value);
+        }
+        if (value instanceof Analyzer) {
+            return "[" + describe((Analyzer) value) + "]";
+        }
+        if (value instanceof CharArraySet || value instanceof Collection) {
+            List<String> values = new ArrayList<>();
+            for (Object element : (Collection<?>) value) {
+                values.add(describeValue(element));
+            }
+            Collections.sort(values);
+            return values.toString();
+        }
+        if (value instanceof Map) {
+            Map<String, String> values = new TreeMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                values.put(describeValue(entry.getKey()), describeValue(entry.getValue()));
+            }
+            return values.toString();
+        }
+        return value.getClass().getName();
+    }
+
+    private static void update(MessageDigest digest, String value) {
+        digest.update(value.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+
+/*
+ * Order in which the documents of an index are stored. An index sort only
+ * orders the documents within each segment, and which documents end up in
+ * which segment depends on the indexing threads. So a sorted LabIndex is
+ * force-merged to a single segment: its doc ids, and therefore the ties
+ * between equal scores, then no longer depend on the indexing threads.
+ */
+public enum IndexSortOrder {
+    // Order in which the documents were flushed
+    NONE,
+    // Ascending CACM id, read from the id doc values
+    ID;
+
+    /*
+     * Index sort for IndexWriterConfig, null for NONE.
+     */
+    public Sort sort(String idField) {
+        switch (this) {
+            case ID:
+                return new Sort(new SortField(idField, SortField.Type.LONG));
+            default:
+                return null;
+        }
+    }
+}
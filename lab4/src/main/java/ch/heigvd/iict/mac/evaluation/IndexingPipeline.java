@@ -0,0 +1,272 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.IndexWriter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/*
+ * Indexes a corpus through four stages connected by bounded queues:
+ *
+ *  read  - one thread loads batches of lines from the CorpusReader
+ *  parse - decodes the lines and finds their fields
+ *  build - creates the Lucene documents
+ *  write - adds them to the shared IndexWriter, which analyzes them
+ *
+ * Each stage has its own number of threads. When a queue is full, the
+ * stage feeding it blocks, so a slow stage slows the ones before it down
+ * instead of filling the memory. The stats of each stage tell which one
+ * is worth more threads.
+ *
+ * With too few threads for a stage each, the parse, build and write
+ * stages are combined: the read thread feeds workers that each parse,
+ * build and write their batches.
+ */
+public class IndexingPipeline {
+    // Marks the end of the stream in a queue, compared by identity
+    private static final Batch END = new Batch(new ArrayList<>());
+
+    private final Config config;
+    private final Function<CorpusRecord, Document> documentBuilder;
+
+    public IndexingPipeline(Config config, Function<CorpusRecord, Document> documentBuilder) {
+        this.config = config;
+        this.documentBuilder = documentBuilder;
+    }
+
+    public List<PipelineStageStats> run(CorpusReader corpus, IndexWriter indexWriter,
+                                        IndexingStats stats) throws Exception {
+        PipelineStageStats read = new PipelineStageStats("read", 1);
+        if (config.isCombined()) {
+            return runCombined(corpus, indexWriter, stats, read);
+        }
+        PipelineStageStats parse = new PipelineStageStats("parse", config.parseThreads);
+        PipelineStageStats build = new PipelineStageStats("build", config.buildThreads);
+        PipelineStageStats write = new PipelineStageStats("write", config.writeThreads);
+
+        BlockingQueue<Batch> read2parse = new ArrayBlockingQueue<>(config.queueCapacity);
+        BlockingQueue<Batch> parse2build = new ArrayBlockingQueue<>(config.queueCapacity);
+        BlockingQueue<Batch> build2write = new ArrayBlockingQueue<>(config.queueCapacity);
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        tasks.add(() -> {
+            readAll(corpus, read, read2parse);
+            return null;
+        });
+        addWorkers(tasks, parse, read2parse, parse2build, batch -> {
+            for (CorpusRecord record : batch.records) {
+                record.parse();
+            }
+        });
+        addWorkers(tasks, build, parse2build, build2write, batch -> {
+            batch.documents = new ArrayList<>(batch.records.size());
+            for (CorpusRecord record : batch.records) {
+                batch.documents.add(documentBuilder.apply(record));
+            }
+        });
+        addWorkers(tasks, write, build2write, null, batch -> {
+            for (int i = 0; i < batch.documents.size(); i++) {
+                indexWriter.addDocument(batch.documents.get(i));
+                stats.add(1, batch.records.get(i).getByteLength() + 1);
+            }
+        });
+
+        runAll(tasks);
+        return List.of(read, parse, build, write);
+    }
+
+    private List<PipelineStageStats> runCombined(CorpusReader corpus, IndexWriter indexWriter,
+                                                 IndexingStats stats, PipelineStageStats read)
+            throws Exception {
+        PipelineStageStats combined = new PipelineStageStats("combined", config.writeThreads);
+        BlockingQueue<Batch> read2write = new ArrayBlockingQueue<>(config.queueCapacity);
+
+        List<Callable<Void>> tasks = new ArrayList<>();
+        tasks.add(() -> {
+            readAll(corpus, read, read2write);
+            return null;
+        });
+        addWorkers(tasks, combined, read2write, null, batch -> {
+            for (CorpusRecord record : batch.records) {
+                record.parse();
+                indexWriter.addDocument(documentBuilder.apply(record));
+                stats.add(1, record.getByteLength() + 1);
+            }
+        });
+
+        runAll(tasks);
+        return List.of(read, combined);
+    }
+
+    private static void runAll(List<Callable<Void>> tasks) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(tasks.size());
+        try {
+            ExecutorCompletionService<Void> completion = new ExecutorCompletionService<>(executor);
+            for (Callable<Void> task : tasks) {
+                completion.submit(task);
+            }
+            // The first failure stops the whole pipeline, the other stages
+            // may be blocked on a queue that will never move again
+            for (int i = 0; i < tasks.size(); i++) {
+                completion.take().get();
+            }
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void readAll(CorpusReader corpus, PipelineStageStats read,
+                         BlockingQueue<Batch> out) throws Exception {
+        while (true) {
+            long start = System.nanoTime();
+            List<CorpusRecord> records = new ArrayList<>(config.batchSize);
+            CorpusRecord record = new CorpusRecord();
+            while (records.size() < config.batchSize && corpus.next(record)) {
+                records.add(record);
+                record = new CorpusRecord();
+            }
+            if (records.isEmpty()) {
+                out.put(END);
+                return;
+            }
+            read.addBusy(System.nanoTime() - start);
+            put(out, new Batch(records), read);
+        }
+    }
+
+    private void addWorkers(List<Callable<Void>> tasks, PipelineStageStats stage,
+                            BlockingQueue<Batch> in, BlockingQueue<Batch> out, BatchTask task) {
+        AtomicInteger running = new AtomicInteger(stage.getThreads());
+        for (int i = 0; i < stage.getThreads(); i++) {
+            tasks.add(() -> {
+                while (true) {
+                    long start = System.nanoTime();
+                    Batch batch = in.take();
+                    stage.addInputWait(System.nanoTime() - start);
+                    if (batch == END) {
+                        // Left for the other threads of the stage
+                        in.put(END);
+                        break;
+                    }
+                    start = System.nanoTime();
+                    task.process(batch);
+                    stage.addBusy(System.nanoTime() - start);
+                    if (out != null) {
+                        put(out, batch, stage);
+                    }
+                }
+                if (running.decrementAndGet() == 0 && out != null) {
+                    out.put(END);
+                }
+                return null;
+            });
+        }
+    }
+
+    private static void put(BlockingQueue<Batch> out, Batch batch, PipelineStageStats stage)
+            throws InterruptedException {
+        long start = System.nanoTime();
+        out.put(batch);
+        stage.addOutputWait(System.nanoTime() - start, out.size());
+    }
+
+    private interface BatchTask {
+        void process(Batch batch) throws Exception;
+    }
+
+    private static final class Batch {
+        private final List<CorpusRecord> records;
+        private List<Document> documents;
+
+        Batch(List<CorpusRecord> records) {
+            this.records = records;
+        }
+    }
+
+    /*
+     * Threads per stage, capacity of the queues (in batches) and number of
+     * lines per batch. There is always a single read thread. No parse and
+     * no build threads combine those stages into the write stage.
+     */
+    public static class Config {
+        // A read thread and a combined worker
+        public static final int MIN_THREADS = 2;
+        // One thread per stage
+        public static final int STAGED_THREADS = 4;
+
+        private final int parseThreads;
+        private final int buildThreads;
+        private final int writeThreads;
+        private final int queueCapacity;
+        private final int batchSize;
+
+        public Config(int parseThreads, int buildThreads, int writeThreads,
+                      int queueCapacity, int batchSize) {
+            boolean combined = parseThreads == 0 && buildThreads == 0;
+            if ((!combined && (parseThreads < 1 || buildThreads < 1)) || writeThreads < 1
+                    || queueCapacity < 1 || batchSize < 1) {
+                throw new IllegalArgumentException("Pipeline threads, queue capacity and batch size must be positive,"
+                        + " or no parse and no build threads to combine them with the write stage");
+            }
+            this.parseThreads = parseThreads;
+            this.buildThreads = buildThreads;
+            this.writeThreads = writeThreads;
+            this.queueCapacity = queueCapacity;
+            this.batchSize = batchSize;
+        }
+
+        /*
+         * Default layout for the given number of indexing threads: one per
+         * stage, the writers analyzing the text and getting the others.
+         * With fewer than 4 threads, the read thread feeds the others which
+         * parse, build and write. A single thread gives no pipeline, the
+         * corpus is then indexed on the calling thread.
+         */
+        public static Config forThreads(int threads) {
+            if (threads < MIN_THREADS) {
+                return null;
+            }
+            if (threads < STAGED_THREADS) {
+                return new Config(0, 0, threads - 1, 2 * threads, 256);
+            }
+            return new Config(1, 1, threads - 3, 2 * threads, 256);
+        }
+
+        public Config withWriteThreads(int writeThreads) {
+            return new Config(parseThreads, buildThreads, writeThreads, queueCapacity, batchSize);
+        }
+
+        public int getThreads() {
+            return 1 + parseThreads + buildThreads + writeThreads;
+        }
+
+        public boolean isCombined() {
+            return parseThreads == 0;
+        }
+
+        @Override
+        public String toString() {
+            if (isCombined()) {
+                return String.format("read 1, parse+build+write %d, queues %d x %d lines",
+                        writeThreads, queueCapacity, batchSize);
+            }
+            return String.format("read 1, parse %d, build %d, write %d, queues %d x %d lines",
+                    parseThreads, buildThreads, writeThreads, queueCapacity, batchSize);
+        }
+    }
+}
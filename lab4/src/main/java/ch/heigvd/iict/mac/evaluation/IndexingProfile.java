@@ -0,0 +1,145 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import org.apache.lucene.index.ConcurrentMergeScheduler;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.MergePolicy;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.store.Directory;
+
+import java.io.IOException;
+
+/*
+ * How the IndexWriter buffers and flushes the documents and how many
+ * threads merge the segments. It only changes how fast an index is built
+ * and into how many segments, not what the documents contain.
+ */
+public class IndexingProfile {
+    // Lucene's defaults: flush every 16 MB, one writer, merge threads
+    // picked from the number of cores
+    public static final IndexingProfile DEFAULT = new IndexingProfile(
+            IndexWriterConfig.DEFAULT_RAM_BUFFER_SIZE_MB, IndexWriterConfig.DISABLE_AUTO_FLUSH, 0, 0);
+
+    private final double ramBufferSizeMB;
+    private final int maxBufferedDocs;
+    private final int writerThreads;
+    private final int mergeThreads;
+
+    /*
+     * Either limit can be IndexWriterConfig.DISABLE_AUTO_FLUSH, but not
+     * both. The writer and merge threads are left to the pipeline and to
+     * Lucene when they are 0.
+     */
+    public IndexingProfile(double ramBufferSizeMB, int maxBufferedDocs, int writerThreads, int mergeThreads) {
+        if (ramBufferSizeMB == IndexWriterConfig.DISABLE_AUTO_FLUSH
+                && maxBufferedDocs == IndexWriterConfig.DISABLE_AUTO_FLUSH) {
+            throw new IllegalArgumentException("Either the RAM buffer or the buffered documents must be limited");
+        }
+        if (writerThreads < 0 || mergeThreads < 0) {
+            throw new IllegalArgumentException("The writer and merge threads cannot be negative");
+        }
+        this.ramBufferSizeMB = ramBufferSizeMB;
+        this.maxBufferedDocs = maxBufferedDocs;
+        this.writerThreads = writerThreads;
+        this.mergeThreads = mergeThreads;
+    }
+
+    public double getRamBufferSizeMB() {
+        return ramBufferSizeMB;
+    }
+
+    public int getMaxBufferedDocs() {
+        return maxBufferedDocs;
+    }
+
+    public int getWriterThreads() {
+        return writerThreads;
+    }
+
+    public int getMergeThreads() {
+        return mergeThreads;
+    }
+
+    /*
+     * Lucene 8 gives each thread adding documents its own in-memory
+     * segment, so the number of writers is the number of threads of the
+     * write stage. Replaces it in the pipeline, or creates a pipeline if
+     * there was none and more than one writer is asked for.
+     */
+    IndexingPipeline.Config pipeline(IndexingPipeline.Config pipeline) {
+        if (writerThreads == 0) {
+            return pipeline;
+        }
+        if (pipeline == null) {
+            return writerThreads == 1 ? null : IndexingPipeline.Config.forThreads(writerThreads + 3);
+        }
+        return pipeline.withWriteThreads(writerThreads);
+    }
+
+    /*
+     * Applies the profile to the writer configuration. If stats are given,
+     * the merges of the writer are timed in them, otherwise Lucene's merge
+     * scheduler is left as it is.
+     */
+    void apply(IndexWriterConfig iwc, IndexingStats stats) {
+        // Set in that order so that the two limits are never both disabled
+        iwc.setMaxBufferedDocs(maxBufferedDocs);
+        iwc.setRAMBufferSizeMB(ramBufferSizeMB);
+
+        if (stats == null && mergeThreads == 0) {
+            return;
+        }
+        ConcurrentMergeScheduler scheduler = stats == null
+                ? new ConcurrentMergeScheduler() : new TimedMergeScheduler(stats);
+        if (mergeThreads > 0) {
+            // Lucene's default backlog of merges before the writers stall
+            scheduler.setMaxMergesAndThreads(mergeThreads + 5, mergeThreads);
+        }
+        iwc.setMergeScheduler(scheduler);
+    }
+
+    /*
+     * Segment names counter of the last commit in the directory, 0 if there
+     * is none. A writer names each segment it flushes or merges from this
+     * counter, and keeps counting from the previous index when it replaces
+     * one, so the flushes of a writer are the difference of the counters
+     * before and after it, minus its merges.
+     */
+    static long segmentCounter(Directory directory) throws IOException {
+        return DirectoryReader.indexExists(directory) ? SegmentInfos.readLatestCommit(directory).counter : 0;
+    }
+
+    /*
+     * The writers are only given when the profile sets them, otherwise they
+     * are the ones of the pipeline, if any.
+     */
+    @Override
+    public String toString() {
+        return String.format("RAM buffer %s, max buffered docs %s,%s merge threads %s",
+                ramBufferSizeMB == IndexWriterConfig.DISABLE_AUTO_FLUSH ? "off" : ramBufferSizeMB + " MB",
+                maxBufferedDocs == IndexWriterConfig.DISABLE_AUTO_FLUSH ? "off" : maxBufferedDocs,
+                writerThreads == 0 ? "" : " writers " + writerThreads + ",",
+                mergeThreads == 0 ? "auto" : mergeThreads);
+    }
+
+    /*
+     * Times every merge, including the ones of a force merge.
+     */
+    private static class TimedMergeScheduler extends ConcurrentMergeScheduler {
+        private final IndexingStats stats;
+
+        TimedMergeScheduler(IndexingStats stats) {
+            this.stats = stats;
+        }
+
+        @Override
+        protected void doMerge(MergeSource mergeSource, MergePolicy.OneMerge merge) throws IOException {
+            long start = System.nanoTime();
+            try {
+                super.doMerge(mergeSource, merge);
+            } finally {
+                stats.addMerge(System.nanoTime() - start);
+            }
+        }
+    }
+}
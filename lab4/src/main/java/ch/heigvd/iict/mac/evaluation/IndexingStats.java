@@ -0,0 +1,172 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import java.io.PrintStream;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Counts the documents and bytes indexed during one run, safe to update
+ * from several indexing threads.
+ */
+public class IndexingStats {
+    private final int threads;
+    private final AtomicLong documents = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong merges = new AtomicLong();
+    private final AtomicLong mergeNanos = new AtomicLong();
+    private long elapsedNanos;
+    private long indexSizeBytes;
+    private boolean reused;
+    private int segments;
+    private long forceMergeNanos = -1;
+    private long flushes = -1;
+    private IndexingProfile profile;
+    private IndexingPipeline.Config pipeline;
+    private List<PipelineStageStats> stages = List.of();
+
+    public IndexingStats(int threads) {
+        this.threads = threads;
+    }
+
+    public void add(int docs, long docBytes) {
+        documents.addAndGet(docs);
+        bytes.addAndGet(docBytes);
+    }
+
+    public void addMerge(long nanos) {
+        merges.incrementAndGet();
+        mergeNanos.addAndGet(nanos);
+    }
+
+    /*
+     * Segments flushed by the writer, -1 if its flushes and merges were not
+     * counted.
+     */
+    public long getFlushes() {
+        return flushes;
+    }
+
+    public void setFlushes(long flushes) {
+        this.flushes = flushes;
+    }
+
+    public long getMerges() {
+        return merges.get();
+    }
+
+    /*
+     * Time spent in the merges, summed over the merge threads.
+     */
+    public long getMergeNanos() {
+        return mergeNanos.get();
+    }
+
+    public IndexingProfile getProfile() {
+        return profile;
+    }
+
+    public void setProfile(IndexingProfile profile) {
+        this.profile = profile;
+    }
+
+    public long getDocuments() {
+        return documents.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    public void setElapsedNanos(long elapsedNanos) {
+        this.elapsedNanos = elapsedNanos;
+    }
+
+    public long getIndexSizeBytes() {
+        return indexSizeBytes;
+    }
+
+    public void setIndexSizeBytes(long indexSizeBytes) {
+        this.indexSizeBytes = indexSizeBytes;
+    }
+
+    public int getSegments() {
+        return segments;
+    }
+
+    public void setSegments(int segments) {
+        this.segments = segments;
+    }
+
+    public long getForceMergeNanos() {
+        return forceMergeNanos;
+    }
+
+    /*
+     * Time spent merging the index down after the documents were added,
+     * -1 if it was not force-merged.
+     */
+    public void setForceMergeNanos(long forceMergeNanos) {
+        this.forceMergeNanos = forceMergeNanos;
+    }
+
+    public boolean isReused() {
+        return reused;
+    }
+
+    /*
+     * Marks the run as having reused an existing index of that many
+     * documents instead of indexing the corpus.
+     */
+    public void setReused(long documents) {
+        this.reused = true;
+        this.documents.set(documents);
+    }
+
+    public List<PipelineStageStats> getStages() {
+        return stages;
+    }
+
+    public void setPipeline(IndexingPipeline.Config pipeline, List<PipelineStageStats> stages) {
+        this.pipeline = pipeline;
+        this.stages = stages;
+    }
+
+    public void print(PrintStream out) {
+        double seconds = elapsedNanos / 1e9;
+        if (reused) {
+            out.println("Number of indexed documents: " + documents.get());
+            out.printf("Reused the existing index, opened in %.3f s%n", seconds);
+            out.printf("Index size: %.2f MB in %d segment(s)%n",
+                    indexSizeBytes / (1024.0 * 1024.0), segments);
+            return;
+        }
+        out.println("Number of indexed documents: " + documents.get());
+        out.printf("Indexing time: %.3f s with %d thread(s) (%.1f docs/s, %.2f MB/s)%n",
+                seconds, threads,
+                documents.get() / seconds,
+                bytes.get() / (1024.0 * 1024.0) / seconds);
+        out.printf("Index size: %.2f MB in %d segment(s)%n",
+                indexSizeBytes / (1024.0 * 1024.0), segments);
+        if (profile != null) {
+            out.println("Indexing profile: " + profile);
+        }
+        if (flushes >= 0) {
+            out.printf("Flushes: %d, merges: %d in %.3f s%n",
+                    flushes, merges.get(), mergeNanos.get() / 1e9);
+        }
+        if (forceMergeNanos >= 0) {
+            out.printf("Force merge: %.3f s%n", forceMergeNanos / 1e9);
+        }
+        if (pipeline != null) {
+            out.println("Indexing pipeline: " + pipeline);
+            PipelineStageStats.printHeader(out);
+            for (PipelineStageStats stage : stages) {
+                stage.print(out);
+            }
+        }
+    }
+}
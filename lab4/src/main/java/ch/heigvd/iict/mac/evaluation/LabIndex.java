@@ -4,141 +4,871 @@ import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
 import org.apache.lucene.document.FieldType;
+import org.apache.lucene.document.NumericDocValuesField;
 import org.apache.lucene.document.StringField;
 import org.apache.lucene.index.DirectoryReader;
-import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.ReaderUtil;
+import org.apache.lucene.index.SegmentInfos;
+import org.apache.lucene.queryparser.classic.ParseException;
 import org.apache.lucene.queryparser.classic.QueryParser;
 import org.apache.lucene.queryparser.classic.QueryParserBase;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.Query;
 import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopScoreDocCollector;
+import org.apache.lucene.search.similarities.BM25Similarity;
 import org.apache.lucene.search.similarities.ClassicSimilarity;
 import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.search.similarities.SimilarityBase;
+import org.apache.lucene.search.similarities.TFIDFSimilarity;
 import org.apache.lucene.store.Directory;
-import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.StringHelper;
 
-import java.io.BufferedReader;
-import java.io.FileInputStream;
-import java.io.InputStreamReader;
-import java.nio.charset.StandardCharsets;
+import java.io.Closeable;
+import java.io.IOException;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 
-public class LabIndex {
-    private static final String AUTHOR_SEPARATOR = ";";
-    private static final String DOC_FIELD_SEPARATOR = "\t";
+public class LabIndex implements Closeable {
     private static final String FIELD_ID = "id";
     private static final String FIELD_TITLE = "title";
     private static final String FIELD_SUMMARY = "summary";
     private static final String FIELD_CONTENT = "content";
+    private static final int DEFAULT_RETRIEVAL_DEPTH = 10000;
+    private static final String FINGERPRINT_KEY = "fingerprint";
     private final Analyzer analyzer;
+    private final Path indexPath;
+    private final StorageMode storageMode;
+    private final SchemaProfile schemaProfile;
     private final Similarity similarity;
-    private static final FieldType TYPE_STORED = new FieldType();
+    private Directory directory;
+    private SearcherManager searcherManager;
+    private volatile int retrievalDepth = DEFAULT_RETRIEVAL_DEPTH;
+    private volatile CollectionMode collectionMode = CollectionMode.DEFAULT;
+    private volatile ResultCache resultCache;
+    private volatile ParsedQueryCache queryCache;
+    private volatile LatencyHistogram latencies;
+    // Version of the commit each open reader is on, by reader cache key
+    private final Map<IndexReader.CacheKey, String> readerVersions = new ConcurrentHashMap<>();
+    private boolean reuseExistingIndex = true;
+    private String analyzerKey;
+    private SearchConcurrency searchConcurrency = SearchConcurrency.NONE;
+    private ExecutorService searchExecutor;
+    // Runs the queries of searchAll and the similarities of searchWithEach
+    private ThreadPoolExecutor queryExecutor;
+    private IndexingProfile indexingProfile = IndexingProfile.DEFAULT;
+    private boolean writerStats;
+    private int forceMergeSegments;
+    private IndexSortOrder sortOrder = IndexSortOrder.NONE;
 
-    static {
-        TYPE_STORED.setIndexOptions(
-                IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS
-        );
-        TYPE_STORED.setTokenized(true);
-        TYPE_STORED.setStored(true);
-        TYPE_STORED.setStoreTermVectors(true);
-        TYPE_STORED.setStoreTermVectorPositions(true);
-        TYPE_STORED.setStoreTermVectorOffsets(true);
-        TYPE_STORED.freeze();
+    public LabIndex(Analyzer analyzer) {
+        this(analyzer, FileSystems.getDefault().getPath("index"));
     }
 
-    public LabIndex(Analyzer analyzer) {
+    public LabIndex(Analyzer analyzer, Path indexPath) {
+        this(analyzer, indexPath, StorageMode.FS);
+    }
+
+    public LabIndex(Analyzer analyzer, Path indexPath, StorageMode storageMode) {
+        this(analyzer, indexPath, storageMode, SchemaProfile.FULL);
+    }
+
+    public LabIndex(Analyzer analyzer, Path indexPath, StorageMode storageMode,
+                    SchemaProfile schemaProfile) {
+        this(analyzer, indexPath, storageMode, schemaProfile, new ClassicSimilarity());
+    }
+
+    public LabIndex(Analyzer analyzer, Path indexPath, StorageMode storageMode,
+                    SchemaProfile schemaProfile, Similarity similarity) {
         this.analyzer = analyzer;
-        this.similarity = new ClassicSimilarity();
-    }
-
-    public void index(String filename) {
-        IndexWriter indexWriter;
-        try(BufferedReader br = new BufferedReader(
-                new InputStreamReader(
-                        new FileInputStream(filename),
-                        StandardCharsets.UTF_8
-                )
-        )) {
-            Path path = FileSystems.getDefault().getPath("index");
-            try(Directory dir = FSDirectory.open(path)){
-                IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
-                iwc.setOpenMode(OpenMode.CREATE);
-                iwc.setUseCompoundFile(false);
-                iwc.setSimilarity(similarity);
-
-                indexWriter = new IndexWriter(dir, iwc);
-                String line = br.readLine();
-                int docCounter = 0;
-                while (line != null) {
-                    String[] items = line.split(DOC_FIELD_SEPARATOR);
-                    Document doc = new Document();
-
-                    doc.add(new StringField(FIELD_ID, items[0], Field.Store.YES));
-
-                    String[] authors = items[1].split(AUTHOR_SEPARATOR);
-                    for (String author : authors) {
-                        if (!author.isEmpty()) {
-                            doc.add(new StringField("author", author, Field.Store.YES));
-                        }
-                    }
+        this.indexPath = indexPath;
+        this.storageMode = storageMode;
+        this.schemaProfile = schemaProfile;
+        this.similarity = similarity;
+    }
 
-                    doc.add(new Field(FIELD_TITLE, items[2], TYPE_STORED));
+    public Similarity getSimilarity() {
+        return similarity;
+    }
 
-                    if (items.length == 4) {
-                        doc.add(new Field(FIELD_SUMMARY, items[3], TYPE_STORED));
-                        doc.add(new Field(FIELD_CONTENT,
-                                items[2] + " " + items[3], TYPE_STORED
-                        ));
-                    } else {
-                        doc.add(new Field(FIELD_CONTENT, items[2], TYPE_STORED));
-                    }
+    public int getRetrievalDepth() {
+        return retrievalDepth;
+    }
+
+    /*
+     * Maximum number of documents returned by a search, 10000 by default.
+     */
+    public void setRetrievalDepth(int retrievalDepth) {
+        if (retrievalDepth < 1) {
+            throw new IllegalArgumentException("The retrieval depth must be positive: " + retrievalDepth);
+        }
+        this.retrievalDepth = retrievalDepth;
+    }
+
+    public CollectionMode getCollectionMode() {
+        return collectionMode;
+    }
+
+    public void setCollectionMode(CollectionMode collectionMode) {
+        this.collectionMode = collectionMode;
+    }
+
+    public boolean isReuseExistingIndex() {
+        return reuseExistingIndex;
+    }
+
+    /*
+     * Whether index() opens the index already on disk instead of rebuilding
+     * it when its fingerprint matches, true by default.
+     */
+    public void setReuseExistingIndex(boolean reuseExistingIndex) {
+        this.reuseExistingIndex = reuseExistingIndex;
+    }
+
+    public String getAnalyzerKey() {
+        return analyzerKey;
+    }
+
+    /*
+     * Key identifying the analyzer configuration in the fingerprint, for
+     * analyzers whose configuration cannot be read from their fields, e.g.
+     * built from a lambda. null by default.
+     */
+    public void setAnalyzerKey(String analyzerKey) {
+        this.analyzerKey = analyzerKey;
+    }
+
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    /*
+     * Histogram recording the latency of the searches, null (the default)
+     * not to time them. Only the searches missing the result cache are
+     * timed, from the search to the ids, the query being already parsed.
+     * The cache hits are only counted. The searches scoring with another
+     * similarity, e.g. for a sweep or a grid search, are not recorded.
+     */
+    public void setLatencies(LatencyHistogram latencies) {
+        this.latencies = latencies;
+    }
+
+    public SearchConcurrency getSearchConcurrency() {
+        return searchConcurrency;
+    }
+
+    /*
+     * How each query is spread over the segments, single-threaded by
+     * default. Only applies to the searchers opened after the call, so set
+     * it before index().
+     */
+    public void setSearchConcurrency(SearchConcurrency searchConcurrency) {
+        this.searchConcurrency = searchConcurrency;
+    }
+
+    public IndexingProfile getIndexingProfile() {
+        return indexingProfile;
+    }
+
+    /*
+     * Buffering, flushing and merging of the writer, Lucene's defaults
+     * unless set. A profile giving a number of writers overrides the write
+     * stage of the pipeline.
+     */
+    public void setIndexingProfile(IndexingProfile indexingProfile) {
+        this.indexingProfile = indexingProfile;
+    }
+
+    public boolean isWriterStats() {
+        return writerStats;
+    }
+
+    /*
+     * Whether the flushes and merges of the writer are counted in the
+     * IndexingStats, false by default since the merges are then timed by
+     * a merge scheduler of our own.
+     */
+    public void setWriterStats(boolean writerStats) {
+        this.writerStats = writerStats;
+    }
+
+    public int getForceMergeSegments() {
+        return forceMergeSegments;
+    }
+
+    /*
+     * Merges the index down to at most that many segments once all the
+     * documents are added, 0 (the default) to keep the segments the merge
+     * policy produced. Fewer segments mean fewer terms dictionaries to look
+     * up per query but less room for the concurrent search.
+     */
+    public void setForceMergeSegments(int forceMergeSegments) {
+        if (forceMergeSegments < 0) {
+            throw new IllegalArgumentException("The number of segments cannot be negative: "
+                    + forceMergeSegments);
+        }
+        this.forceMergeSegments = forceMergeSegments;
+    }
+
+    public IndexSortOrder getSortOrder() {
+        return sortOrder;
+    }
 
-                    indexWriter.addDocument(doc);
-                    docCounter++;
-                    line = br.readLine();
+    /*
+     * Order of the documents in the index, NONE by default. A sorted index
+     * is force-merged to a single segment whatever getForceMergeSegments()
+     * says, the sort only ordering the documents within each segment.
+     */
+    public void setSortOrder(IndexSortOrder sortOrder) {
+        this.sortOrder = sortOrder;
+    }
+
+    /*
+     * Segments the index is force-merged to, 0 for none.
+     */
+    private int mergeSegments() {
+        return sortOrder == IndexSortOrder.NONE ? forceMergeSegments : 1;
+    }
+
+    public ResultCache getResultCache() {
+        return resultCache;
+    }
+
+    /*
+     * Cache of the rankings in front of the searches, null to disable it.
+     * A cache can be shared by several indexes.
+     */
+    public void setResultCache(ResultCache resultCache) {
+        this.resultCache = resultCache;
+    }
+
+    public ParsedQueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /*
+     * Cache of the parsed queries, null (the default) to parse every query.
+     * The parsed queries only depend on the analyzer and not on the index
+     * content, so a cache can be shared by several indexes. It keeps their
+     * analyzers reachable.
+     */
+    public void setQueryCache(ParsedQueryCache queryCache) {
+        this.queryCache = queryCache;
+    }
+
+    public IndexingStats index(String filename) {
+        return index(filename, 1);
+    }
+
+    /*
+     * Indexes the file with the given number of threads. With more than one
+     * thread, the file goes through an IndexingPipeline using its default
+     * layout for that many threads, otherwise it is indexed on the calling
+     * thread.
+     */
+    public IndexingStats index(String filename, int threads) {
+        return index(filename, IndexingPipeline.Config.forThreads(threads));
+    }
+
+    /*
+     * Indexes the file through a pipeline with this configuration, or on
+     * the calling thread if it is null.
+     */
+    public IndexingStats index(String filename, IndexingPipeline.Config pipeline) {
+        pipeline = indexingProfile.pipeline(pipeline);
+        IndexingStats stats = new IndexingStats(pipeline == null ? 1 : pipeline.getThreads());
+        try {
+            long start = System.nanoTime();
+            // An index in memory is never reused, its corpus is not hashed
+            String fingerprint = storageMode.isInMemory() ? null : IndexFingerprint.compute(Path.of(filename),
+                    analyzer, analyzerKey, schemaProfile, similarity, mergeSegments(), sortOrder);
+            boolean reuse = reuseExistingIndex && fingerprint != null
+                    && fingerprint.equals(existingFingerprint());
+            if (!reuse) {
+                build(filename, pipeline, fingerprint, stats);
+            }
+            stats.setElapsedNanos(System.nanoTime() - start);
+            stats.setIndexSizeBytes(sizeOf(directory));
+            refreshSearcher();
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                stats.setSegments(searcher.getIndexReader().leaves().size());
+                if (reuse) {
+                    stats.setReused(searcher.getIndexReader().numDocs());
                 }
-                System.out.println("Number of indexed documents: " + docCounter);
-                indexWriter.close();
+            } finally {
+                searcherManager.release(searcher);
             }
         } catch (Exception e) {
             e.printStackTrace();
             System.out.println("Exception in Indexing.\n");
         }
+        return stats;
+    }
+
+    private void build(String filename, IndexingPipeline.Config pipeline, String fingerprint,
+                       IndexingStats stats) throws Exception {
+        try(CorpusReader corpus = new CorpusReader(Path.of(filename))) {
+            IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
+            iwc.setOpenMode(OpenMode.CREATE);
+            iwc.setUseCompoundFile(false);
+            iwc.setSimilarity(similarity);
+            indexingProfile.apply(iwc, writerStats ? stats : null);
+            stats.setProfile(indexingProfile);
+            if (sortOrder != IndexSortOrder.NONE) {
+                iwc.setIndexSort(sortOrder.sort(FIELD_ID));
+            }
+
+            long segmentCounter = writerStats ? IndexingProfile.segmentCounter(openDirectory()) : 0;
+            try(IndexWriter indexWriter = new IndexWriter(openDirectory(), iwc)) {
+                if (pipeline != null) {
+                    stats.setPipeline(pipeline, new IndexingPipeline(pipeline, this::createDocument)
+                            .run(corpus, indexWriter, stats));
+                } else {
+                    indexSequential(corpus, indexWriter, stats);
+                }
+                int mergeSegments = mergeSegments();
+                if (mergeSegments > 0) {
+                    long start = System.nanoTime();
+                    indexWriter.forceMerge(mergeSegments);
+                    stats.setForceMergeNanos(System.nanoTime() - start);
+                }
+                // Only a complete index gets its fingerprint
+                if (fingerprint != null) {
+                    indexWriter.setLiveCommitData(
+                            Map.of(FINGERPRINT_KEY, fingerprint).entrySet());
+                }
+            }
+            if (writerStats) {
+                stats.setFlushes(IndexingProfile.segmentCounter(directory) - segmentCounter - stats.getMerges());
+            }
+        }
+    }
+
+    /*
+     * Fingerprint of the index already in the directory, null if there is
+     * none or if the index is kept in memory.
+     */
+    private String existingFingerprint() throws IOException {
+        if (storageMode.isInMemory()) {
+            return null;
+        }
+        Directory dir = openDirectory();
+        if (!DirectoryReader.indexExists(dir)) {
+            return null;
+        }
+        return SegmentInfos.readLatestCommit(dir).getUserData().get(FINGERPRINT_KEY);
+    }
+
+    private void indexSequential(CorpusReader corpus, IndexWriter indexWriter, IndexingStats stats)
+            throws IOException {
+        // The document is added before the next line is read, so the record
+        // and its buffers can be reused
+        CorpusRecord record = new CorpusRecord();
+        while (corpus.next(record)) {
+            indexWriter.addDocument(createDocument(record));
+            stats.add(1, record.getByteLength() + 1);
+        }
+    }
+
+    /*
+     * Fields that are not stored are given to Lucene as readers over the
+     * record chars, only the stored ones are copied into strings.
+     */
+    private Document createDocument(CorpusRecord record) {
+        Document doc = new Document();
+
+        doc.add(new StringField(FIELD_ID, record.getIdString(), Field.Store.YES));
+        doc.add(new NumericDocValuesField(FIELD_ID, record.getId()));
+
+        Field.Store storeAuthors = schemaProfile.getStoreAuthors();
+        record.forEachAuthor(author -> doc.add(new StringField("author", author, storeAuthors)));
+
+        FieldType titleAndSummaryType = schemaProfile.getTitleAndSummaryType();
+        FieldType contentType = schemaProfile.getContentType();
+        if (titleAndSummaryType != null) {
+            doc.add(titleAndSummaryType.stored()
+                    ? new Field(FIELD_TITLE, record.getTitle(), titleAndSummaryType)
+                    : new Field(FIELD_TITLE, record.titleReader(), titleAndSummaryType));
+            if (record.hasSummary()) {
+                doc.add(titleAndSummaryType.stored()
+                        ? new Field(FIELD_SUMMARY, record.getSummary(), titleAndSummaryType)
+                        : new Field(FIELD_SUMMARY, record.summaryReader(), titleAndSummaryType));
+            }
+        }
+
+        doc.add(contentType.stored()
+                ? new Field(FIELD_CONTENT, record.getContent(), contentType)
+                : new Field(FIELD_CONTENT, record.contentReader(), contentType));
+        return doc;
     }
 
     public List<Integer> search(String queryString) {
         List<Integer> queryResults = new ArrayList<>();
+        if (searcherManager == null) {
+            System.out.println("Exception in Search: the index has not been built.\n");
+            return queryResults;
+        }
         try {
-            Path path = FileSystems.getDefault().getPath("index");
-            Directory dir = FSDirectory.open(path);
-            DirectoryReader reader = DirectoryReader.open(dir);
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                for (int id : search(searcher, parse(queryString))) {
+                    queryResults.add(id);
+                }
+            } finally {
+                searcherManager.release(searcher);
+            }
+        } catch (Exception e) {
+            e.printStackTrace();
+            System.out.println("Exception in Search.\n");
+        }
+        return queryResults;
+    }
 
-            IndexSearcher searcher = new IndexSearcher(reader);
-            searcher.setSimilarity(similarity);
-            QueryParser parser = new QueryParser(FIELD_CONTENT, analyzer);
-            Query query = parser.parse(QueryParserBase.escape(queryString));
+    public List<int[]> searchAll(List<String> queryStrings) {
+        return searchAll(queryStrings, Runtime.getRuntime().availableProcessors());
+    }
 
-            TopDocs results = searcher.search(query, 10000);
+    /*
+     * Parses all the queries first, then runs them concurrently over the
+     * same searcher. Results are returned in the order of the queries, a
+     * query that fails gets an empty result like in search().
+     */
+    public List<int[]> searchAll(List<String> queryStrings, int threads) {
+        return searchAll(queryStrings, null, threads);
+    }
 
-            ScoreDoc[] hits = results.scoreDocs;
+    /*
+     * Like searchAll, but scoring with another similarity over the same
+     * reader, without reindexing. Null scores with the index similarity.
+     * The norms are computed at indexing time, so the similarity must
+     * encode them like the index similarity.
+     */
+    public List<int[]> searchAll(List<String> queryStrings, Similarity searchSimilarity, int threads) {
+        return searchAll(queryStrings, searchSimilarity, threads, true);
+    }
 
-            for (ScoreDoc hit : hits) {
-                Document doc = searcher.doc(hit.doc);
-                queryResults.add(Integer.parseInt(doc.get(FIELD_ID)));
+    /*
+     * Like searchAll, optionally bypassing the result cache, e.g. to time
+     * the searches themselves.
+     */
+    public List<int[]> searchAll(List<String> queryStrings, Similarity searchSimilarity, int threads,
+                                 boolean useResultCache) {
+        if (searchSimilarity != null) {
+            checkNormsCompatible(searchSimilarity);
+        }
+        List<int[]> allResults = new ArrayList<>(queryStrings.size());
+        if (searcherManager == null) {
+            System.out.println("Exception in Search: the index has not been built.\n");
+            for (int i = 0; i < queryStrings.size(); i++) {
+                allResults.add(new int[0]);
+            }
+            return allResults;
+        }
+
+        List<Query> queries = parseAll(queryStrings);
+
+        try {
+            IndexSearcher searcher = searcherManager.acquire();
+            try {
+                IndexSearcher scoring = searcher;
+                if (searchSimilarity != null) {
+                    scoring = searchConcurrency.newSearcher(searcher.getIndexReader(), searchExecutor);
+                    scoring.setSimilarity(searchSimilarity);
+                }
+                IndexSearcher querySearcher = scoring;
+                allResults.addAll(runEach(queries.size(), threads, i -> {
+                    Query query = queries.get(i);
+                    try {
+                        return query == null ? new int[0]
+                                : search(querySearcher, query, useResultCache, searchSimilarity == null);
+                    } catch (Exception e) {
+                        e.printStackTrace();
+                        System.out.println("Exception in Search.\n");
+                        return new int[0];
+                    }
+                }));
+            } finally {
+                searcherManager.release(searcher);
             }
-            reader.close();
-            dir.close();
         } catch (Exception e) {
             e.printStackTrace();
             System.out.println("Exception in Search.\n");
         }
-        return queryResults;
+        return allResults;
+    }
+
+    /*
+     * Runs all the queries once per similarity and reduces each similarity's
+     * rankings with the evaluation function, e.g. to a MAP, so that the
+     * rankings of all the similarities are never held at once. The
+     * similarities are spread over the threads, all of them searching the
+     * same reader through their own IndexSearcher. The result cache is not
+     * used. Results are in the order of the similarities.
+     */
+    public <T> List<T> searchWithEach(List<String> queryStrings, List<? extends Similarity> similarities,
+                                      int threads, Function<List<int[]>, T> evaluation)
+            throws IOException, InterruptedException, ExecutionException {
+        for (Similarity searchSimilarity : similarities) {
+            checkNormsCompatible(searchSimilarity);
+        }
+        if (searcherManager == null) {
+            throw new IllegalStateException("The index has not been built");
+        }
+
+        List<Query> queries = parseAll(queryStrings);
+
+        IndexSearcher searcher = searcherManager.acquire();
+        try {
+            IndexReader reader = searcher.getIndexReader();
+            return runEach(similarities.size(), threads, i -> {
+                IndexSearcher similaritySearcher = searchConcurrency.newSearcher(reader, searchExecutor);
+                similaritySearcher.setSimilarity(similarities.get(i));
+                List<int[]> allResults = new ArrayList<>(queries.size());
+                for (Query query : queries) {
+                    allResults.add(query == null
+                            ? new int[0] : search(similaritySearcher, query, false, false));
+                }
+                return evaluation.apply(allResults);
+            });
+        } finally {
+            searcherManager.release(searcher);
+        }
+    }
+
+    /*
+     * Runs the task for 0 to count - 1 on the shared query pool, with at
+     * most that many threads: each worker takes the next index until there
+     * is none left, so a call never uses more of the pool than it asked
+     * for whatever the other calls running meanwhile asked. The results are
+     * in the order of the indexes. The first failure stops the workers from
+     * taking more indexes.
+     */
+    private <T> List<T> runEach(int count, int threads, IndexedTask<T> task)
+            throws InterruptedException, ExecutionException {
+        Object[] results = new Object[count];
+        AtomicInteger next = new AtomicInteger();
+        int workers = Math.min(Math.max(1, threads), count);
+        ExecutorService executor = queryExecutor(workers);
+        List<Future<?>> futures = new ArrayList<>(workers);
+        try {
+            for (int w = 0; w < workers; w++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = next.getAndIncrement(); i < count; i = next.getAndIncrement()) {
+                        results[i] = task.run(i);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            next.set(count);
+            for (Future<?> future : futures) {
+                future.cancel(true);
+            }
+        }
+        List<T> list = new ArrayList<>(count);
+        for (Object result : results) {
+            @SuppressWarnings("unchecked")
+            T t = (T) result;
+            list.add(t);
+        }
+        return list;
+    }
+
+    private interface IndexedTask<T> {
+        T run(int i) throws Exception;
+    }
+
+    /*
+     * Pool running the queries, created on first use and kept until close()
+     * so that the timed searches do not start threads. It grows when a call
+     * asks for more threads than it has and never shrinks, each call
+     * bounding its own parallelism in runEach.
+     */
+    private synchronized ExecutorService queryExecutor(int threads) {
+        threads = Math.max(1, threads);
+        if (queryExecutor == null) {
+            queryExecutor = (ThreadPoolExecutor) Executors.newFixedThreadPool(threads);
+        } else if (queryExecutor.getMaximumPoolSize() < threads) {
+            queryExecutor.setMaximumPoolSize(threads);
+            queryExecutor.setCorePoolSize(threads);
+        }
+        return queryExecutor;
+    }
+
+    private void checkNormsCompatible(Similarity searchSimilarity) {
+        if (!normsCompatible(similarity, searchSimilarity)) {
+            throw new IllegalArgumentException("The norms of " + similarity + " cannot be scored with "
+                    + searchSimilarity + ", the index has to be rebuilt with it");
+        }
+    }
+
+    /*
+     * Parsed queries in the same order, null for a query that cannot be
+     * parsed.
+     */
+    private List<Query> parseAll(List<String> queryStrings) {
+        List<Query> queries = new ArrayList<>(queryStrings.size());
+        for (String queryString : queryStrings) {
+            try {
+                queries.add(parse(queryString));
+            } catch (ParseException e) {
+                e.printStackTrace();
+                System.out.println("Exception in Search.\n");
+                queries.add(null);
+            }
+        }
+        return queries;
+    }
+
+    private Query parse(String queryString) throws ParseException {
+        ParsedQueryCache cache = queryCache;
+        Query query = cache == null ? null : cache.get(analyzer, FIELD_CONTENT, queryString);
+        if (query == null) {
+            QueryParser parser = new QueryParser(FIELD_CONTENT, analyzer);
+            query = parser.parse(QueryParserBase.escape(queryString));
+            if (cache != null) {
+                cache.put(analyzer, FIELD_CONTENT, queryString, query);
+            }
+        }
+        return query;
+    }
+
+    private int[] search(IndexSearcher searcher, Query query) throws IOException {
+        return search(searcher, query, true, true);
+    }
+
+    /*
+     * Ranking of the query, from the result cache if it has it. If timed,
+     * the search is recorded in the latencies, a cache hit being counted
+     * apart.
+     */
+    private int[] search(IndexSearcher searcher, Query query, boolean useResultCache, boolean timed)
+            throws IOException {
+        LatencyHistogram histogram = timed ? latencies : null;
+        int depth = retrievalDepth;
+        ResultCache cache = useResultCache ? resultCache : null;
+        // The version of the reader this search runs on, the index may have
+        // been rebuilt and the searcher refreshed since it was acquired
+        String version = cache == null ? null : readerVersions.get(
+                searcher.getIndexReader().getReaderCacheHelper().getKey());
+        if (version == null) {
+            cache = null;
+        }
+        ResultCache.Key key = null;
+        if (cache != null) {
+            key = new ResultCache.Key(version, describe(searcher.getSimilarity()),
+                    query.toString(), depth);
+            Ranking cached = cache.get(key);
+            if (cached != null) {
+                if (histogram != null) {
+                    histogram.recordCacheHit();
+                }
+                return cached.getIds();
+            }
+        }
+        if (histogram == null) {
+            return rank(searcher, query, depth, cache, key);
+        }
+        long start = System.nanoTime();
+        try {
+            return rank(searcher, query, depth, cache, key);
+        } finally {
+            histogram.record(System.nanoTime() - start);
+        }
+    }
+
+    /*
+     * Searches the query, putting its ranking in the cache if there is one.
+     */
+    private int[] rank(IndexSearcher searcher, Query query, int depth, ResultCache cache, ResultCache.Key key)
+            throws IOException {
+        // No need for a queue larger than the index
+        int numHits = Math.min(depth, Math.max(1, searcher.getIndexReader().maxDoc()));
+        TopDocs results = searcher.search(query, TopScoreDocCollector.createSharedManager(
+                numHits, null, collectionMode.totalHitsThreshold(numHits)));
+
+        ScoreDoc[] hits = results.scoreDocs;
+
+        int[] ids = readIds(searcher, hits);
+        if (cache != null) {
+            float[] scores = new float[hits.length];
+            for (int i = 0; i < hits.length; i++) {
+                scores[i] = hits[i].score;
+            }
+            cache.put(key, new Ranking(ids, scores));
+        }
+        return ids;
+    }
+
+    /*
+     * Reads the ids of the hits from the id doc values. The hits are visited
+     * in doc order so that each segment's doc values are only read forward,
+     * the ids are returned in the ranking order.
+     */
+    static int[] readIds(IndexSearcher searcher, ScoreDoc[] hits) throws IOException {
+        int[] ids = new int[hits.length];
+        // doc in the high bits and rank in the low bits, sorted by doc
+        long[] byDoc = new long[hits.length];
+        for (int i = 0; i < hits.length; i++) {
+            byDoc[i] = ((long) hits[i].doc << 32) | i;
+        }
+        Arrays.sort(byDoc);
+
+        List<LeafReaderContext> leaves = searcher.getIndexReader().leaves();
+        LeafReaderContext leaf = null;
+        NumericDocValues idValues = null;
+        for (long docAndRank : byDoc) {
+            int doc = (int) (docAndRank >>> 32);
+            int rank = (int) docAndRank;
+            if (leaf == null || doc >= leaf.docBase + leaf.reader().maxDoc()) {
+                leaf = leaves.get(ReaderUtil.subIndex(doc, leaves));
+                idValues = leaf.reader().getNumericDocValues(FIELD_ID);
+            }
+            if (idValues != null && idValues.advanceExact(doc - leaf.docBase)) {
+                ids[rank] = (int) idValues.longValue();
+            } else {
+                // Index built without the id doc values
+                ids[rank] = Integer.parseInt(searcher.doc(doc).get(FIELD_ID));
+            }
+        }
+        return ids;
+    }
+
+    private static long sizeOf(Directory dir) throws IOException {
+        long size = 0;
+        for (String file : dir.listAll()) {
+            size += dir.fileLength(file);
+        }
+        return size;
+    }
+
+    /*
+     * Opens the index directory once, it is kept open until close() so the
+     * searcher can share its files between queries. For the in-memory modes,
+     * closing the directory drops the index.
+     */
+    private Directory openDirectory() throws IOException {
+        if (directory == null) {
+            directory = storageMode.open(indexPath);
+        }
+        return directory;
+    }
+
+    /*
+     * Opens the shared searcher after the first indexing and only reopens
+     * the reader afterwards when the index has changed.
+     */
+    private void refreshSearcher() throws IOException {
+        if (searcherManager == null) {
+            if (searchConcurrency.isConcurrent()) {
+                searchExecutor = Executors.newFixedThreadPool(searchConcurrency.getThreads());
+            }
+            searcherManager = new SearcherManager(directory, new SearcherFactory() {
+                @Override
+                public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader)
+                        throws IOException {
+                    IndexReader.CacheHelper cacheHelper = reader.getReaderCacheHelper();
+                    readerVersions.put(cacheHelper.getKey(), versionOf((DirectoryReader) reader));
+                    cacheHelper.addClosedListener(readerVersions::remove);
+                    IndexSearcher searcher = searchConcurrency.newSearcher(reader, searchExecutor);
+                    searcher.setSimilarity(similarity);
+                    return searcher;
+                }
+            });
+        } else {
+            searcherManager.maybeRefreshBlocking();
+        }
+    }
+
+    /*
+     * Lucene's built-in similarities all store the field length in one byte
+     * the same way, they only differ on whether overlapping tokens count.
+     */
+    private static boolean normsCompatible(Similarity indexed, Similarity searched) {
+        Boolean indexedOverlaps = discountOverlaps(indexed);
+        return indexedOverlaps != null && indexedOverlaps.equals(discountOverlaps(searched));
+    }
+
+    /*
+     * Whether the similarity ignores the overlapping tokens when computing
+     * the norms, null if it is not one of Lucene's built-in similarities.
+     */
+    static Boolean discountOverlaps(Similarity similarity) {
+        if (similarity instanceof BM25Similarity) {
+            return ((BM25Similarity) similarity).getDiscountOverlaps();
+        }
+        if (similarity instanceof TFIDFSimilarity) {
+            return ((TFIDFSimilarity) similarity).getDiscountOverlaps();
+        }
+        if (similarity instanceof SimilarityBase) {
+            return ((SimilarityBase) similarity).getDiscountOverlaps();
+        }
+        return null;
+    }
+
+    /*
+     * Similarity description used in the result cache keys. Not every
+     * similarity prints its parameters, so do not share a cache between
+     * differently tuned similarities of such a class.
+     */
+    private static String describe(Similarity similarity) {
+        return similarity.getClass().getName() + ":" + similarity;
+    }
+
+    /*
+     * Identifies the commit the reader is opened on. Each commit has a random
+     * id, so a rebuilt index never gets the version of the previous one.
+     */
+    private static String versionOf(DirectoryReader reader) throws IOException {
+        SegmentInfos infos = SegmentInfos.readCommit(
+                reader.directory(), reader.getIndexCommit().getSegmentsFileName());
+        return StringHelper.idToString(infos.getId()) + "_" + infos.getGeneration();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (searcherManager != null) {
+            searcherManager.close();
+            searcherManager = null;
+        }
+        if (searchExecutor != null) {
+            searchExecutor.shutdown();
+            searchExecutor = null;
+        }
+        synchronized (this) {
+            if (queryExecutor != null) {
+                queryExecutor.shutdown();
+                queryExecutor = null;
+            }
+        }
+        if (directory != null) {
+            directory.close();
+            directory = null;
+        }
     }
 }
@@ -0,0 +1,109 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Histogram of latencies in nanoseconds, in the style of HdrHistogram: the
+ * buckets are linear up to 256 ns, then each power of two is split into 128
+ * sub-buckets, so any recorded value is known within 1% whatever its
+ * magnitude, in a fixed 60 KB. Recording is lock-free and can be done from
+ * several threads. The searches answered by a cache are only counted, so
+ * that they do not pull the percentiles down.
+ */
+public class LatencyHistogram {
+    // Sub-buckets per power of two, as a power of two
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int LINEAR_BUCKETS = 2 * SUB_BUCKETS;
+    private static final int BUCKETS = LINEAR_BUCKETS + (Long.SIZE - SUB_BUCKET_BITS - 1) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong totalCount = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+
+    public void record(long nanos) {
+        long value = Math.max(0, nanos);
+        counts.incrementAndGet(bucketOf(value));
+        totalCount.incrementAndGet();
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    public void recordCacheHit() {
+        cacheHits.incrementAndGet();
+    }
+
+    public long getCacheHits() {
+        return cacheHits.get();
+    }
+
+    public long getCount() {
+        return totalCount.get();
+    }
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /*
+     * Smallest latency that percentile percent of the recordings do not
+     * exceed, as the highest value of its bucket (never above the maximum).
+     * 0 if nothing was recorded.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = totalCount.get();
+        if (total == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int bucket = 0; bucket < BUCKETS; bucket++) {
+            seen += counts.get(bucket);
+            if (seen >= target) {
+                return Math.min(highestValueOf(bucket), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /*
+     * Values below LINEAR_BUCKETS have their own bucket. Above, a value whose
+     * highest bit is above the linear range is shifted right until it fits
+     * in [SUB_BUCKETS, 2 * SUB_BUCKETS), the shift selecting the group of
+     * sub-buckets.
+     */
+    private static int bucketOf(long value) {
+        if (value < LINEAR_BUCKETS) {
+            return (int) value;
+        }
+        int shift = Long.SIZE - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS - 1;
+        return shift * SUB_BUCKETS + (int) (value >>> shift);
+    }
+
+    private static long highestValueOf(int bucket) {
+        if (bucket < LINEAR_BUCKETS) {
+            return bucket;
+        }
+        int shift = bucket / SUB_BUCKETS - 1;
+        long subBucket = bucket - (long) shift * SUB_BUCKETS;
+        long highest = ((subBucket + 1) << shift) - 1;
+        // The very last bucket ends at Long.MAX_VALUE
+        return highest < 0 ? Long.MAX_VALUE : highest;
+    }
+
+    /*
+     * Percentiles in milliseconds, e.g. for the reports.
+     */
+    @Override
+    public String toString() {
+        if (getCount() == 0) {
+            return String.format("no search (%d cache hits)", getCacheHits());
+        }
+        return String.format("p50 %.3f ms, p90 %.3f ms, p99 %.3f ms, p99.9 %.3f ms, max %.3f ms "
+                        + "(%d searches, %d cache hits)",
+                getValueAtPercentile(50) / 1e6, getValueAtPercentile(90) / 1e6,
+                getValueAtPercentile(99) / 1e6, getValueAtPercentile(99.9) / 1e6,
+                getMax() / 1e6, getCount(), getCacheHits());
+    }
+}
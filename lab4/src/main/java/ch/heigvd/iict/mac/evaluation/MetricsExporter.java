@@ -0,0 +1,168 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Writes the metrics of a run for analysis tools: one row per analyzer and
+ * query, followed for each analyzer by a row for the whole query set whose
+ * query is "all". The format is JSON (an array of row objects) if the file
+ * name ends with .json, CSV otherwise.
+ */
+public class MetricsExporter {
+    private static final String ALL_QUERIES = "all";
+
+    private final List<String> analyzerNames = new ArrayList<>();
+    private final List<EvaluationMetrics> metrics = new ArrayList<>();
+
+    public void add(String analyzerName, EvaluationMetrics analyzerMetrics) {
+        analyzerNames.add(analyzerName);
+        metrics.add(analyzerMetrics);
+    }
+
+    public void write(Path file) throws IOException {
+        boolean json = file.getFileName().toString().toLowerCase().endsWith(".json");
+        try (Writer out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            List<String> columns = columns();
+            if (json) {
+                out.write("[");
+            } else {
+                writeCsvRow(out, new ArrayList<>(columns));
+            }
+            boolean first = true;
+            for (int a = 0; a < metrics.size(); a++) {
+                EvaluationMetrics analyzerMetrics = metrics.get(a);
+                List<List<Object>> rows = new ArrayList<>();
+                for (QueryMetrics query : analyzerMetrics.getQueries()) {
+                    rows.add(queryRow(analyzerNames.get(a), query));
+                }
+                rows.add(aggregateRow(analyzerNames.get(a), analyzerMetrics));
+                for (List<Object> row : rows) {
+                    if (json) {
+                        out.write(first ? "\n" : ",\n");
+                        writeJsonRow(out, columns, row);
+                    } else {
+                        writeCsvRow(out, row);
+                    }
+                    first = false;
+                }
+            }
+            if (json) {
+                out.write("\n]\n");
+            }
+        }
+    }
+
+    /*
+     * The rank metrics and recall levels are the same for every analyzer of
+     * a run, they are taken from the first one.
+     */
+    private List<String> columns() {
+        List<String> columns = new ArrayList<>(List.of("analyzer", "query", "retrieved", "relevant",
+                "retrieved_relevant", "precision", "recall", "f_measure", "average_precision",
+                "r_precision"));
+        if (!metrics.isEmpty()) {
+            EvaluationMetrics first = metrics.get(0);
+            for (RankMetric rankMetric : first.getRankMetrics()) {
+                columns.add(rankMetric.toString());
+            }
+            for (int i = 0; i < first.getAvgPrecisionAtRecallLevels().length; i++) {
+                columns.add("precision_at_recall_" + i);
+            }
+        }
+        return columns;
+    }
+
+    private static List<Object> queryRow(String analyzerName, QueryMetrics query) {
+        List<Object> row = new ArrayList<>(List.of(analyzerName, String.valueOf(query.getQueryId()),
+                query.getRetrievedDocs(), query.getRelevantDocs(), query.getRetrievedRelevantDocs(),
+                query.getPrecision(), query.getRecall(), query.getFMeasure(), query.getAveragePrecision(),
+                query.getRPrecision()));
+        for (int i = 0; i < query.getRankMetricCount(); i++) {
+            row.add(query.getRankMetric(i));
+        }
+        for (int i = 0; i < query.getRecallLevels(); i++) {
+            row.add(query.getPrecisionAtRecallLevel(i));
+        }
+        return row;
+    }
+
+    private static List<Object> aggregateRow(String analyzerName, EvaluationMetrics metrics) {
+        List<Object> row = new ArrayList<>(List.of(analyzerName, ALL_QUERIES,
+                metrics.getTotalRetrievedDocs(), metrics.getTotalRelevantDocs(),
+                metrics.getTotalRetrievedRelevantDocs(), metrics.getAvgPrecision(), metrics.getAvgRecall(),
+                metrics.getFMeasure(), metrics.getMeanAveragePrecision(), metrics.getAvgRPrecision()));
+        for (int i = 0; i < metrics.getRankMetrics().size(); i++) {
+            row.add(metrics.getAvgRankMetric(i));
+        }
+        for (double precision : metrics.getAvgPrecisionAtRecallLevels()) {
+            row.add(precision);
+        }
+        return row;
+    }
+
+    private static void writeCsvRow(Writer out, List<?> row) throws IOException {
+        for (int i = 0; i < row.size(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            Object value = row.get(i);
+            if (value instanceof String) {
+                out.write(csvString((String) value));
+            } else if (value instanceof Double && !Double.isFinite((Double) value)) {
+                // Left empty, like the null of the JSON export
+            } else if (value != null) {
+                out.write(value.toString());
+            }
+        }
+        out.write('\n');
+    }
+
+    private static String csvString(String value) {
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0) {
+            return value;
+        }
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
+
+    private static void writeJsonRow(Writer out, List<String> columns, List<Object> row) throws IOException {
+        out.write("  {");
+        for (int i = 0; i < columns.size(); i++) {
+            if (i > 0) {
+                out.write(", ");
+            }
+            out.write(jsonString(columns.get(i)));
+            out.write(": ");
+            Object value = row.get(i);
+            if (value instanceof String) {
+                out.write(jsonString((String) value));
+            } else if (value instanceof Double && !Double.isFinite((Double) value)) {
+                // JSON has no NaN, e.g. the F-measure when nothing relevant is retrieved
+                out.write("null");
+            } else {
+                out.write(String.valueOf(value));
+            }
+        }
+        out.write("}");
+    }
+
+    private static String jsonString(String value) {
+        StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+}
@@ -5,6 +5,7 @@ import org.apache.lucene.analysis.Analyzer;
 public class NamedAnalyzer {
     private final String analyzerName;
     private final Analyzer analyzer;
+    private final LatencyHistogram latencies = new LatencyHistogram();
 
     public NamedAnalyzer(String analyzerName, Analyzer analyzer) {
         this.analyzer = analyzer;
@@ -18,4 +19,19 @@ public class NamedAnalyzer {
     public Analyzer getAnalyzer() {
         return analyzer;
     }
+
+    /*
+     * Latencies of the searches made with this analyzer.
+     */
+    public LatencyHistogram getLatencies() {
+        return latencies;
+    }
+
+    /*
+     * Name of the index directory of this analyzer, e.g. "index-english" for
+     * "English", so that each analyzer can be evaluated on its own index.
+     */
+    public String getIndexName() {
+        return "index-" + analyzerName.toLowerCase().replaceAll("[^a-z0-9]+", "-");
+    }
 }
@@ -0,0 +1,21 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import org.apache.lucene.search.similarities.Similarity;
+
+public class NamedSimilarity {
+    private final String similarityName;
+    private final Similarity similarity;
+
+    public NamedSimilarity(String similarityName, Similarity similarity) {
+        this.similarity = similarity;
+        this.similarityName = similarityName;
+    }
+
+    public String getSimilarityName() {
+        return similarityName;
+    }
+
+    public Similarity getSimilarity() {
+        return similarity;
+    }
+}
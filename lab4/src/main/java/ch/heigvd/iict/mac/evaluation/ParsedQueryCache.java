@@ -0,0 +1,102 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.search.Query;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Bounded LRU cache of parsed queries, keyed by the analyzer instance, the
+ * default field and the raw query text. Lucene queries are immutable, so a
+ * cached query can be shared between searches and threads.
+ */
+public class ParsedQueryCache {
+    private final int maxSize;
+    private final Map<Key, Query> queries;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ParsedQueryCache(int maxSize) {
+        this.maxSize = maxSize;
+        this.queries = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Query> eldest) {
+                return size() > ParsedQueryCache.this.maxSize;
+            }
+        };
+    }
+
+    /*
+     * Cached query, or null if this query has not been parsed yet.
+     */
+    public Query get(Analyzer analyzer, String field, String queryString) {
+        Query query;
+        synchronized (queries) {
+            query = queries.get(new Key(analyzer, field, queryString));
+        }
+        if (query == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return query;
+    }
+
+    public void put(Analyzer analyzer, String field, String queryString, Query query) {
+        synchronized (queries) {
+            queries.put(new Key(analyzer, field, queryString), query);
+        }
+    }
+
+    public int size() {
+        synchronized (queries) {
+            return queries.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d queries, %d hits, %d misses", size(), getHits(), getMisses());
+    }
+
+    private static final class Key {
+        private final Analyzer analyzer;
+        private final String field;
+        private final String queryString;
+
+        Key(Analyzer analyzer, String field, String queryString) {
+            this.analyzer = analyzer;
+            this.field = field;
+            this.queryString = queryString;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            // Analyzers are compared by identity, two instances of the same
+            // class can be configured differently
+            return analyzer == other.analyzer
+                    && field.equals(other.field)
+                    && queryString.equals(other.queryString);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(analyzer), field, queryString);
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Time spent by the threads of one indexing pipeline stage, and depth of
+ * the queue it feeds. The stage with the highest busy time per thread is
+ * the bottleneck, a stage mostly waiting for input is starved by the
+ * previous one and a stage often blocked on output is faster than the next.
+ */
+public class PipelineStageStats {
+    private final String name;
+    private final int threads;
+    private final AtomicLong batches = new AtomicLong();
+    private final AtomicLong busyNanos = new AtomicLong();
+    private final AtomicLong inputWaitNanos = new AtomicLong();
+    private final AtomicLong outputWaitNanos = new AtomicLong();
+    private final AtomicLong queueDepthSum = new AtomicLong();
+    private final AtomicLong queueDepthSamples = new AtomicLong();
+    private final AtomicLong queueDepthMax = new AtomicLong();
+
+    public PipelineStageStats(String name, int threads) {
+        this.name = name;
+        this.threads = threads;
+    }
+
+    void addBusy(long nanos) {
+        batches.incrementAndGet();
+        busyNanos.addAndGet(nanos);
+    }
+
+    void addInputWait(long nanos) {
+        inputWaitNanos.addAndGet(nanos);
+    }
+
+    void addOutputWait(long nanos, int queueDepth) {
+        outputWaitNanos.addAndGet(nanos);
+        queueDepthSum.addAndGet(queueDepth);
+        queueDepthSamples.incrementAndGet();
+        queueDepthMax.accumulateAndGet(queueDepth, Math::max);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public long getBatches() {
+        return batches.get();
+    }
+
+    public long getBusyNanos() {
+        return busyNanos.get();
+    }
+
+    public long getInputWaitNanos() {
+        return inputWaitNanos.get();
+    }
+
+    public long getOutputWaitNanos() {
+        return outputWaitNanos.get();
+    }
+
+    public double getAverageQueueDepth() {
+        long samples = queueDepthSamples.get();
+        return samples == 0 ? 0.0 : (double) queueDepthSum.get() / samples;
+    }
+
+    public long getMaxQueueDepth() {
+        return queueDepthMax.get();
+    }
+
+    static void printHeader(PrintStream out) {
+        out.printf("\t%-8s %7s %8s %12s %12s %12s %16s%n",
+                "stage", "threads", "batches", "busy ms/thr", "wait in ms", "wait out ms", "out queue avg/max");
+    }
+
+    void print(PrintStream out) {
+        out.printf("\t%-8s %7d %8d %12.1f %12.1f %12.1f %11.1f/%d%n",
+                name, threads, batches.get(),
+                busyNanos.get() / 1e6 / threads,
+                inputWaitNanos.get() / 1e6,
+                outputWaitNanos.get() / 1e6,
+                getAverageQueueDepth(), getMaxQueueDepth());
+    }
+}
@@ -0,0 +1,142 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import java.util.Arrays;
+
+/*
+ * Relevant documents per query, kept as sorted int arrays so that a
+ * relevance check is a binary search without any boxing. The queries are
+ * looked up by binary search in a sorted array of their numbers, which can
+ * be sparse, e.g. ids from a query log. The documents judged non-relevant
+ * can be kept the same way, the CACM qrels only list the relevant ones.
+ */
+public class Qrels {
+    private static final int[] NONE = new int[0];
+
+    private final Judgments relevantDocs = new Judgments();
+    private final Judgments nonRelevantDocs = new Judgments();
+
+    /*
+     * Adds relevant documents to a query, they are merged with the documents
+     * already known for that query. A document judged relevant several times
+     * is only counted once.
+     */
+    public void add(int query, int[] docs) {
+        relevantDocs.merge(query, docs);
+    }
+
+    /*
+     * Adds documents judged non-relevant to a query, merged the same way.
+     * They are only used by bpref, a document absent from the qrels being
+     * unjudged rather than non-relevant. They should not also be judged
+     * relevant.
+     */
+    public void addNonRelevant(int query, int[] docs) {
+        nonRelevantDocs.merge(query, docs);
+    }
+
+    /*
+     * Copy of the sorted relevant documents of the query, empty if it has no
+     * qrels.
+     */
+    public int[] get(int query) {
+        return relevant(query).clone();
+    }
+
+    /*
+     * The sorted relevant documents themselves, for the evaluation loop.
+     * They are binary-searched by every later lookup, so never modify them.
+     */
+    int[] relevant(int query) {
+        return relevantDocs.get(query);
+    }
+
+    public boolean isRelevant(int query, int doc) {
+        return Arrays.binarySearch(relevant(query), doc) >= 0;
+    }
+
+    public int relevantCount(int query) {
+        return relevant(query).length;
+    }
+
+    public boolean isJudgedNonRelevant(int query, int doc) {
+        return Arrays.binarySearch(nonRelevantDocs.get(query), doc) >= 0;
+    }
+
+    public int nonRelevantCount(int query) {
+        return nonRelevantDocs.get(query).length;
+    }
+
+    /*
+     * Number of queries that have qrels.
+     */
+    public int size() {
+        return relevantDocs.size;
+    }
+
+    public double averageRelevantCount() {
+        if (relevantDocs.size == 0) {
+            return 0.0;
+        }
+        long total = 0;
+        for (int i = 0; i < relevantDocs.size; i++) {
+            total += relevantDocs.docs[i].length;
+        }
+        return (double) total / relevantDocs.size;
+    }
+
+    private static int[] dedup(int[] sorted) {
+        int size = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[size++] = sorted[i];
+            }
+        }
+        return size == sorted.length ? sorted : Arrays.copyOf(sorted, size);
+    }
+
+    /*
+     * Sorted documents per query, the queries being sorted by number. Qrels
+     * files list the queries in order, so a new query is usually appended.
+     */
+    private static class Judgments {
+        private int[] queries = new int[0];
+        private int[][] docs = new int[0][];
+        private int size;
+
+        int[] get(int query) {
+            int i = Arrays.binarySearch(queries, 0, size, query);
+            return i < 0 ? NONE : docs[i];
+        }
+
+        void merge(int query, int[] newDocs) {
+            if (query < 0) {
+                throw new IllegalArgumentException("Invalid query number in the qrels: " + query);
+            }
+            int i = Arrays.binarySearch(queries, 0, size, query);
+            int[] merged;
+            if (i >= 0) {
+                int[] known = docs[i];
+                merged = Arrays.copyOf(known, known.length + newDocs.length);
+                System.arraycopy(newDocs, 0, merged, known.length, newDocs.length);
+            } else {
+                i = -i - 1;
+                insert(i, query);
+                merged = newDocs.clone();
+            }
+            Arrays.sort(merged);
+            docs[i] = dedup(merged);
+        }
+
+        private void insert(int i, int query) {
+            if (size == queries.length) {
+                int capacity = Math.max(8, 2 * size);
+                queries = Arrays.copyOf(queries, capacity);
+                docs = Arrays.copyOf(docs, capacity);
+            }
+            System.arraycopy(queries, i, queries, i + 1, size - i);
+            System.arraycopy(docs, i, docs, i + 1, size - i);
+            queries[i] = query;
+            size++;
+        }
+    }
+}
@@ -0,0 +1,288 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import java.util.List;
+
+/*
+ * Metrics of the ranking of a single query. Immutable, so that the queries
+ * can be evaluated concurrently and their metrics reported afterwards: the
+ * arrays are copied in and only read one value at a time.
+ */
+public class QueryMetrics {
+    // The 11 recall levels 0, 0.1, ..., 1
+    public static final int DEFAULT_RECALL_LEVELS = 11;
+
+    private static final ThreadLocal<int[]> RELEVANT_RANKS = ThreadLocal.withInitial(() -> new int[256]);
+
+    private final int queryId;
+    private final int retrievedDocs;
+    private final int relevantDocs;
+    private final int retrievedRelevantDocs;
+    private final double averagePrecision;
+    private final double rPrecision;
+    private final double[] precisionAtRecallLevels;
+    private final double[] rankMetrics;
+
+    public QueryMetrics(int queryId, int retrievedDocs, int relevantDocs, int retrievedRelevantDocs,
+                        double averagePrecision, double rPrecision, double[] precisionAtRecallLevels,
+                        double[] rankMetrics) {
+        this(queryId, retrievedDocs, relevantDocs, retrievedRelevantDocs, averagePrecision, rPrecision,
+                precisionAtRecallLevels, rankMetrics, true);
+    }
+
+    /*
+     * Copies the arrays if asked, otherwise takes them over: compute() gives
+     * arrays nothing else refers to, so they are not allocated twice.
+     */
+    private QueryMetrics(int queryId, int retrievedDocs, int relevantDocs, int retrievedRelevantDocs,
+                         double averagePrecision, double rPrecision, double[] precisionAtRecallLevels,
+                         double[] rankMetrics, boolean copy) {
+        this.queryId = queryId;
+        this.retrievedDocs = retrievedDocs;
+        this.relevantDocs = relevantDocs;
+        this.retrievedRelevantDocs = retrievedRelevantDocs;
+        this.averagePrecision = averagePrecision;
+        this.rPrecision = rPrecision;
+        this.precisionAtRecallLevels = copy ? precisionAtRecallLevels.clone() : precisionAtRecallLevels;
+        this.rankMetrics = copy ? rankMetrics.clone() : rankMetrics;
+    }
+
+    /*
+     * Evaluates the ranking of the query against its qrels, with the
+     * precision interpolated at the 11 standard recall levels.
+     */
+    public static QueryMetrics compute(int queryId, int[] queryResults, Qrels qrels) {
+        return compute(queryId, queryResults, qrels, DEFAULT_RECALL_LEVELS);
+    }
+
+    /*
+     * Evaluates the ranking of the query against its qrels, with the
+     * precision interpolated at recallLevels levels evenly spread from 0 to
+     * 1. The ranking is read once, the ranks of the relevant documents being
+     * kept in a per-thread buffer for the interpolation.
+     */
+    public static QueryMetrics compute(int queryId, int[] queryResults, Qrels qrels, int recallLevels) {
+        return compute(queryId, queryResults, qrels, recallLevels, List.of());
+    }
+
+    /*
+     * Same, also computing the rank metrics in the same pass: each relevance
+     * lookup feeds every metric, which is read from the running counters
+     * when its cutoff is reached.
+     */
+    public static QueryMetrics compute(int queryId, int[] queryResults, Qrels qrels, int recallLevels,
+                                       List<RankMetric> metrics) {
+        if (recallLevels < 2) {
+            throw new IllegalArgumentException("At least the recall levels 0 and 1 are needed: " + recallLevels);
+        }
+        int queryRelevantDocs = qrels.relevantCount(queryId);
+        // bpref only counts the first min(R, N) judged non-relevant documents
+        int bprefNonRelevantDocs = Math.min(queryRelevantDocs, qrels.nonRelevantCount(queryId));
+        int[] relevantRanks = relevantRanksBuffer(Math.min(queryResults.length, queryRelevantDocs));
+        int queryRetrievedRelevantDocs = 0;
+
+        double queryAveragePrecision = 0;
+        double queryRPrecision = 0;
+
+        // Counters of the rank metrics
+        double[] rankMetrics = new double[metrics.size()];
+        double dcg = 0;
+        int firstRelevantRank = 0;
+        int judgedNonRelevantDocs = 0;
+        double bprefSum = 0;
+        int nextCutoff = nextCutoff(metrics, 0);
+
+        // For each retrieved documents.
+        for (int retrievedDocI = 0; retrievedDocI < queryResults.length; retrievedDocI++) {
+            // AP
+            // Is the retrieved document a relevant document ?
+            if (qrels.isRelevant(queryId, queryResults[retrievedDocI])) {
+                relevantRanks[queryRetrievedRelevantDocs] = retrievedDocI;
+                queryRetrievedRelevantDocs++;
+                queryAveragePrecision += ((double) queryRetrievedRelevantDocs / (retrievedDocI + 1.));
+
+                dcg += 1 / RankMetric.log2(retrievedDocI + 2);
+                if (firstRelevantRank == 0) {
+                    firstRelevantRank = retrievedDocI + 1;
+                }
+                // Without judged non-relevant documents, every relevant one counts fully
+                bprefSum += bprefNonRelevantDocs == 0 ? 1
+                        : 1 - (double) Math.min(judgedNonRelevantDocs, bprefNonRelevantDocs) / bprefNonRelevantDocs;
+            } else if (qrels.isJudgedNonRelevant(queryId, queryResults[retrievedDocI])) {
+                // Unjudged documents are skipped
+                judgedNonRelevantDocs++;
+            }
+
+            if (retrievedDocI + 1 == nextCutoff) {
+                for (int i = 0; i < rankMetrics.length; i++) {
+                    RankMetric metric = metrics.get(i);
+                    if (metric.getCutoff() == nextCutoff) {
+                        rankMetrics[i] = metric.value(nextCutoff, queryRetrievedRelevantDocs, dcg,
+                                firstRelevantRank, bprefSum, queryRelevantDocs);
+                    }
+                }
+                nextCutoff = nextCutoff(metrics, nextCutoff);
+            }
+
+            // R-Precision
+            // When we have "parsed" as much retrieved documents as the number of relevant documents
+            if (queryRelevantDocs > 0 && retrievedDocI == (queryRelevantDocs - 1)) {
+                queryRPrecision = (double) queryRetrievedRelevantDocs / (double) queryRelevantDocs;
+            }
+        }
+        // If no relevant documents, we set query AP to 0 else the usual formula is used.
+        double averagePrecision = queryRelevantDocs == 0 ? 0 : queryAveragePrecision / queryRelevantDocs;
+
+        // Metrics over the whole ranking, or with a cutoff beyond its end
+        for (int i = 0; i < rankMetrics.length; i++) {
+            RankMetric metric = metrics.get(i);
+            if (metric.getCutoff() == RankMetric.ALL || metric.getCutoff() > queryResults.length) {
+                rankMetrics[i] = metric.value(queryResults.length, queryRetrievedRelevantDocs, dcg,
+                        firstRelevantRank, bprefSum, queryRelevantDocs);
+            }
+        }
+
+        double[] precisionAtRecallLevels = new double[recallLevels];
+        interpolatePrecision(relevantRanks, queryRetrievedRelevantDocs, queryRelevantDocs,
+                precisionAtRecallLevels);
+
+        return new QueryMetrics(queryId, queryResults.length, queryRelevantDocs, queryRetrievedRelevantDocs,
+                averagePrecision, queryRPrecision, precisionAtRecallLevels, rankMetrics, false);
+    }
+
+    /*
+     * Smallest cutoff of the metrics after that rank, 0 if there is none.
+     */
+    private static int nextCutoff(List<RankMetric> metrics, int rank) {
+        int next = 0;
+        for (RankMetric metric : metrics) {
+            int cutoff = metric.getCutoff();
+            if (cutoff > rank && (next == 0 || cutoff < next)) {
+                next = cutoff;
+            }
+        }
+        return next;
+    }
+
+    /*
+     * Interpolated precision at the recall levels i / (levels - 1): the best
+     * precision at any rank whose recall reaches the level. Between two
+     * relevant documents the recall stays the same while the precision
+     * drops, so only the ranks of the relevant documents matter. They are
+     * walked backwards keeping the best precision seen so far, each level
+     * getting it once the recall falls below the level, in
+     * O(relevant retrieved + levels) and without allocating.
+     */
+    static void interpolatePrecision(int[] relevantRanks, int retrievedRelevantDocs, int relevantDocs,
+                                     double[] precisionAtRecallLevels) {
+        int levels = precisionAtRecallLevels.length;
+        int level = levels - 1;
+        double recall = recall(retrievedRelevantDocs, relevantDocs);
+        // Levels above the final recall are never reached
+        while (level >= 0 && recallLevel(level, levels) > recall) {
+            precisionAtRecallLevels[level--] = 0;
+        }
+        double bestPrecision = 0;
+        for (int relevant = retrievedRelevantDocs; relevant >= 1; relevant--) {
+            double precision = (double) relevant / (relevantRanks[relevant - 1] + 1.);
+            if (precision > bestPrecision) {
+                bestPrecision = precision;
+            }
+            // Levels only reached from this relevant document on
+            double previousRecall = recall(relevant - 1, relevantDocs);
+            while (level >= 0 && recallLevel(level, levels) > previousRecall) {
+                precisionAtRecallLevels[level--] = bestPrecision;
+            }
+        }
+        // Level 0 is reached from the first rank
+        while (level >= 0) {
+            precisionAtRecallLevels[level--] = bestPrecision;
+        }
+    }
+
+    private static double recall(int retrievedRelevantDocs, int relevantDocs) {
+        return relevantDocs == 0 ? 0 : (double) retrievedRelevantDocs / (double) relevantDocs;
+    }
+
+    private static double recallLevel(int level, int levels) {
+        return (double) level / (levels - 1);
+    }
+
+    /*
+     * Reused buffer of at least that many ranks, one per thread since the
+     * queries are evaluated concurrently.
+     */
+    private static int[] relevantRanksBuffer(int size) {
+        int[] buffer = RELEVANT_RANKS.get();
+        if (buffer.length < size) {
+            buffer = new int[Math.max(size, 2 * buffer.length)];
+            RELEVANT_RANKS.set(buffer);
+        }
+        return buffer;
+    }
+
+    public int getQueryId() {
+        return queryId;
+    }
+
+    public int getRetrievedDocs() {
+        return retrievedDocs;
+    }
+
+    public int getRelevantDocs() {
+        return relevantDocs;
+    }
+
+    public int getRetrievedRelevantDocs() {
+        return retrievedRelevantDocs;
+    }
+
+    /*
+     * 0 if nothing was retrieved.
+     */
+    public double getPrecision() {
+        return retrievedDocs == 0 ? 0 : (double) retrievedRelevantDocs / (double) retrievedDocs;
+    }
+
+    /*
+     * 0 if the query has no relevant document.
+     */
+    public double getRecall() {
+        return relevantDocs == 0 ? 0 : (double) retrievedRelevantDocs / (double) relevantDocs;
+    }
+
+    /*
+     * Harmonic mean of the precision and recall, 0 if both are.
+     */
+    public double getFMeasure() {
+        double precision = getPrecision();
+        double recall = getRecall();
+        return precision + recall == 0 ? 0 : 2 * precision * recall / (precision + recall);
+    }
+
+    public double getAveragePrecision() {
+        return averagePrecision;
+    }
+
+    public double getRPrecision() {
+        return rPrecision;
+    }
+
+    public int getRecallLevels() {
+        return precisionAtRecallLevels.length;
+    }
+
+    public double getPrecisionAtRecallLevel(int level) {
+        return precisionAtRecallLevels[level];
+    }
+
+    public int getRankMetricCount() {
+        return rankMetrics.length;
+    }
+
+    /*
+     * Value of the i-th metric of the list the query was computed with.
+     */
+    public double getRankMetric(int i) {
+        return rankMetrics[i];
+    }
+}
@@ -0,0 +1,125 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/*
+ * Rank-based metric computed at a cutoff, like nDCG@10 or P@10. All the
+ * metrics of a query are computed by QueryMetrics in the same pass over
+ * the ranking, each one being read from the counters of that pass once the
+ * cutoff is reached. The CACM qrels are binary, so is the nDCG gain.
+ */
+public class RankMetric {
+    // No cutoff, the whole ranking is used
+    public static final int ALL = 0;
+
+    public enum Type {
+        NDCG("nDCG"),
+        PRECISION("P"),
+        RECALL("Recall"),
+        MRR("MRR"),
+        BPREF("bpref"),
+        SUCCESS("success");
+
+        private final String label;
+
+        Type(String label) {
+            this.label = label;
+        }
+    }
+
+    private final Type type;
+    private final int cutoff;
+
+    public RankMetric(Type type, int cutoff) {
+        if (cutoff < 0) {
+            throw new IllegalArgumentException("The cutoff cannot be negative: " + cutoff);
+        }
+        this.type = type;
+        this.cutoff = cutoff;
+    }
+
+    /*
+     * Metrics from "name[@k],...", e.g. "ndcg@10,p@10,recall@100,mrr,bpref,success@1",
+     * the names being matched ignoring the case. Empty if the spec is.
+     */
+    public static List<RankMetric> parse(String spec) {
+        List<RankMetric> metrics = new ArrayList<>();
+        for (String value : spec.split(",")) {
+            value = value.trim();
+            if (value.isEmpty()) {
+                continue;
+            }
+            int at = value.indexOf('@');
+            String name = at < 0 ? value : value.substring(0, at);
+            int cutoff = at < 0 ? ALL : Integer.parseInt(value.substring(at + 1));
+            metrics.add(new RankMetric(typeOf(name), cutoff));
+        }
+        return metrics;
+    }
+
+    private static Type typeOf(String name) {
+        for (Type type : Type.values()) {
+            if (type.label.equalsIgnoreCase(name) || type.name().equalsIgnoreCase(name)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown metric: " + name);
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    public int getCutoff() {
+        return cutoff;
+    }
+
+    /*
+     * Value of the metric from the counters of the pass over the ranking,
+     * taken at rank min(cutoff, ranking length):
+     * - ranked: that rank
+     * - relevantRetrieved: relevant documents up to that rank
+     * - dcg: sum of 1 / log2(rank + 1) over these relevant documents
+     * - firstRelevantRank: 1-based rank of the first one, 0 if there is none
+     * - bprefSum: sum over them of 1 - min(n, m) / m, as in trec_eval: n is
+     *   the number of judged non-relevant documents ranked above and m is
+     *   min(R, N), N being the number of judged non-relevant documents.
+     *   Unjudged documents are not counted, and each term is 1 if m is 0,
+     *   so with qrels listing only relevant documents, like CACM's, bpref
+     *   is the recall.
+     */
+    double value(int ranked, int relevantRetrieved, double dcg, int firstRelevantRank, double bprefSum,
+                 int relevantDocs) {
+        switch (type) {
+            case NDCG:
+                double idealDcg = 0;
+                int idealRelevant = cutoff == ALL ? relevantDocs : Math.min(cutoff, relevantDocs);
+                for (int rank = 1; rank <= idealRelevant; rank++) {
+                    idealDcg += 1 / log2(rank + 1);
+                }
+                return idealDcg == 0 ? 0 : dcg / idealDcg;
+            case PRECISION:
+                // Divided by the cutoff even if fewer documents were retrieved
+                int denominator = cutoff == ALL ? ranked : cutoff;
+                return denominator == 0 ? 0 : (double) relevantRetrieved / denominator;
+            case RECALL:
+                return relevantDocs == 0 ? 0 : (double) relevantRetrieved / relevantDocs;
+            case MRR:
+                return firstRelevantRank == 0 ? 0 : 1.0 / firstRelevantRank;
+            case BPREF:
+                return relevantDocs == 0 ? 0 : bprefSum / relevantDocs;
+            default:
+                return relevantRetrieved > 0 ? 1 : 0;
+        }
+    }
+
+    static double log2(int value) {
+        return Math.log(value) / Math.log(2);
+    }
+
+    @Override
+    public String toString() {
+        return cutoff == ALL ? type.label : type.label + "@" + cutoff;
+    }
+}
@@ -0,0 +1,32 @@
+package ch.heigvd.iict.mac.evaluation;
+
+/*
+ * Result of a search: the ids of the retrieved documents in rank order and
+ * their scores. Immutable, since rankings are shared through the result
+ * cache: the arrays are copied in and out so that a caller sorting or
+ * editing its ranking cannot change the cached one.
+ */
+public class Ranking {
+    private final int[] ids;
+    private final float[] scores;
+
+    public Ranking(int[] ids, float[] scores) {
+        if (ids.length != scores.length) {
+            throw new IllegalArgumentException("Got " + ids.length + " ids for " + scores.length + " scores");
+        }
+        this.ids = ids.clone();
+        this.scores = scores.clone();
+    }
+
+    public int[] getIds() {
+        return ids.clone();
+    }
+
+    public float[] getScores() {
+        return scores.clone();
+    }
+
+    public int size() {
+        return ids.length;
+    }
+}
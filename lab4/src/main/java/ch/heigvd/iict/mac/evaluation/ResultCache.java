@@ -0,0 +1,208 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Bounded LRU cache of rankings keyed by (index version, similarity, query,
+ * depth), so that re-running an evaluation on an unchanged index skips the
+ * searches. It can be saved to and loaded from a local file.
+ */
+public class ResultCache {
+    private static final int FILE_FORMAT_VERSION = 2;
+
+    private final int maxEntries;
+    private final Map<Key, Ranking> rankings;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ResultCache(int maxEntries) {
+        this.maxEntries = maxEntries;
+        this.rankings = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Ranking> eldest) {
+                return size() > ResultCache.this.maxEntries;
+            }
+        };
+    }
+
+    /*
+     * Cached ranking, or null if this search has not been run yet.
+     */
+    public Ranking get(Key key) {
+        Ranking ranking;
+        synchronized (rankings) {
+            ranking = rankings.get(key);
+        }
+        if (ranking == null) {
+            misses.incrementAndGet();
+        } else {
+            hits.incrementAndGet();
+        }
+        return ranking;
+    }
+
+    public void put(Key key, Ranking ranking) {
+        synchronized (rankings) {
+            rankings.put(key, ranking);
+        }
+    }
+
+    public int size() {
+        synchronized (rankings) {
+            return rankings.size();
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /*
+     * Adds the rankings saved in the file to the cache. Nothing is loaded if
+     * the file does not exist. A count or a length that the file cannot
+     * hold means it is truncated or corrupt and is rejected before any
+     * array is allocated.
+     */
+    public void load(Path file) throws IOException {
+        if (!Files.exists(file)) {
+            return;
+        }
+        long fileSize = Files.size(file);
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(Files.newInputStream(file)))) {
+            int version = in.readInt();
+            if (version != FILE_FORMAT_VERSION) {
+                throw new IOException("Unsupported result cache version " + version + " in " + file);
+            }
+            // Each ranking takes at least its three string lengths, its depth and its size
+            int count = readLength(in, "ranking count", fileSize / 20);
+            for (int i = 0; i < count; i++) {
+                Key key = new Key(readString(in, fileSize), readString(in, fileSize),
+                        readString(in, fileSize), in.readInt());
+                // An id and a score per document
+                int size = readLength(in, "ranking size", fileSize / 8);
+                int[] ids = new int[size];
+                float[] scores = new float[size];
+                for (int j = 0; j < size; j++) {
+                    ids[j] = in.readInt();
+                }
+                for (int j = 0; j < size; j++) {
+                    scores[j] = in.readFloat();
+                }
+                put(key, new Ranking(ids, scores));
+            }
+        }
+    }
+
+    /*
+     * Writes the cache to the file, least recently used rankings first so
+     * that loading it back keeps the eviction order.
+     */
+    public void save(Path file) throws IOException {
+        List<Map.Entry<Key, Ranking>> entries;
+        synchronized (rankings) {
+            entries = new ArrayList<>(rankings.entrySet());
+        }
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+            out.writeInt(FILE_FORMAT_VERSION);
+            out.writeInt(entries.size());
+            for (Map.Entry<Key, Ranking> entry : entries) {
+                Key key = entry.getKey();
+                writeString(out, key.indexVersion);
+                writeString(out, key.similarity);
+                writeString(out, key.query);
+                out.writeInt(key.depth);
+                Ranking ranking = entry.getValue();
+                out.writeInt(ranking.size());
+                for (int id : ranking.getIds()) {
+                    out.writeInt(id);
+                }
+                for (float score : ranking.getScores()) {
+                    out.writeFloat(score);
+                }
+            }
+        }
+        Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /*
+     * Strings are written as their UTF-8 length then bytes, writeUTF being
+     * limited to 64 KB and a query can be longer than that.
+     */
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(DataInputStream in, long fileSize) throws IOException {
+        int length = readLength(in, "string length", fileSize);
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static int readLength(DataInputStream in, String name, long max) throws IOException {
+        int length = in.readInt();
+        if (length < 0 || length > max) {
+            throw new IOException("Invalid " + name + " " + length + " in the result cache");
+        }
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d rankings, %d hits, %d misses", size(), getHits(), getMisses());
+    }
+
+    public static final class Key {
+        private final String indexVersion;
+        private final String similarity;
+        private final String query;
+        private final int depth;
+
+        public Key(String indexVersion, String similarity, String query, int depth) {
+            this.indexVersion = indexVersion;
+            this.similarity = similarity;
+            this.query = query;
+            this.depth = depth;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return depth == other.depth
+                    && indexVersion.equals(other.indexVersion)
+                    && similarity.equals(other.similarity)
+                    && query.equals(other.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(indexVersion, similarity, query, depth);
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.FieldType;
+import org.apache.lucene.index.IndexOptions;
+
+/*
+ * Which fields a LabIndex writes and how. The id is always indexed, stored
+ * and kept in doc values since it is what the searches return.
+ */
+public enum SchemaProfile {
+    // Every text field stored with positions, offsets and term vectors
+    FULL(storedWithTermVectors(), storedWithTermVectors(), Field.Store.YES),
+    // Only what the evaluation searches on: content with its frequencies
+    EVAL_LEAN(null, indexedWithFreqs(), Field.Store.NO);
+
+    private final FieldType titleAndSummaryType;
+    private final FieldType contentType;
+    private final Field.Store storeAuthors;
+
+    SchemaProfile(FieldType titleAndSummaryType, FieldType contentType, Field.Store storeAuthors) {
+        this.titleAndSummaryType = titleAndSummaryType;
+        this.contentType = contentType;
+        this.storeAuthors = storeAuthors;
+    }
+
+    /*
+     * Type of the title and summary fields, null if they are not indexed.
+     */
+    public FieldType getTitleAndSummaryType() {
+        return titleAndSummaryType;
+    }
+
+    public FieldType getContentType() {
+        return contentType;
+    }
+
+    public Field.Store getStoreAuthors() {
+        return storeAuthors;
+    }
+
+    private static FieldType storedWithTermVectors() {
+        FieldType type = new FieldType();
+        type.setIndexOptions(
+                IndexOptions.DOCS_AND_FREQS_AND_POSITIONS_AND_OFFSETS
+        );
+        type.setTokenized(true);
+        type.setStored(true);
+        type.setStoreTermVectors(true);
+        type.setStoreTermVectorPositions(true);
+        type.setStoreTermVectorOffsets(true);
+        type.freeze();
+        return type;
+    }
+
+    private static FieldType indexedWithFreqs() {
+        FieldType type = new FieldType();
+        type.setIndexOptions(IndexOptions.DOCS_AND_FREQS);
+        type.setTokenized(true);
+        type.setStored(false);
+        type.freeze();
+        return type;
+    }
+}
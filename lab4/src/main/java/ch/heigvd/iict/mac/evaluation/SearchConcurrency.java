@@ -0,0 +1,116 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.IndexSearcher;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/*
+ * How a single query is spread over the segments of the index. The segments
+ * are grouped into slices and each slice is searched by its own thread, the
+ * partial top k being merged afterwards. A segment is never split, so an
+ * index with a single segment is always searched by one thread.
+ */
+public class SearchConcurrency {
+
+    // Lucene's own limits, used when nothing else is configured
+    public static final int DEFAULT_MAX_DOCS_PER_SLICE = 250_000;
+    public static final int DEFAULT_MAX_SEGMENTS_PER_SLICE = 5;
+
+    public static final SearchConcurrency NONE = new SearchConcurrency(
+            1, DEFAULT_MAX_DOCS_PER_SLICE, DEFAULT_MAX_SEGMENTS_PER_SLICE);
+
+    private final int threads;
+    private final int maxDocsPerSlice;
+    private final int maxSegmentsPerSlice;
+
+    public SearchConcurrency(int threads, int maxDocsPerSlice, int maxSegmentsPerSlice) {
+        if (threads < 1 || maxDocsPerSlice < 1 || maxSegmentsPerSlice < 1) {
+            throw new IllegalArgumentException("The search concurrency must be positive: "
+                    + threads + "," + maxDocsPerSlice + "," + maxSegmentsPerSlice);
+        }
+        this.threads = threads;
+        this.maxDocsPerSlice = maxDocsPerSlice;
+        this.maxSegmentsPerSlice = maxSegmentsPerSlice;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getMaxDocsPerSlice() {
+        return maxDocsPerSlice;
+    }
+
+    public int getMaxSegmentsPerSlice() {
+        return maxSegmentsPerSlice;
+    }
+
+    public boolean isConcurrent() {
+        return threads > 1;
+    }
+
+    /*
+     * Searcher over the reader slicing its segments with this policy, or a
+     * plain single-threaded searcher if there is no executor.
+     */
+    IndexSearcher newSearcher(IndexReader reader, Executor executor) {
+        if (executor == null) {
+            return new IndexSearcher(reader);
+        }
+        // IndexSearcher computes its slices in its constructor, before the
+        // fields of a subclass are set, so the limits are captured instead
+        int maxDocs = maxDocsPerSlice;
+        int maxSegments = maxSegmentsPerSlice;
+        return new IndexSearcher(reader, executor) {
+            @Override
+            protected LeafSlice[] slices(List<LeafReaderContext> leaves) {
+                return slice(leaves, maxDocs, maxSegments);
+            }
+        };
+    }
+
+    /*
+     * Largest segments first: a segment above the document limit gets a
+     * slice of its own, the smaller ones are grouped until either limit is
+     * exceeded.
+     */
+    static IndexSearcher.LeafSlice[] slice(List<LeafReaderContext> leaves, int maxDocs, int maxSegments) {
+        List<LeafReaderContext> sorted = new ArrayList<>(leaves);
+        sorted.sort(Comparator.comparingInt((LeafReaderContext leaf) -> leaf.reader().maxDoc()).reversed());
+
+        List<IndexSearcher.LeafSlice> slices = new ArrayList<>();
+        List<LeafReaderContext> group = new ArrayList<>();
+        long docs = 0;
+        for (LeafReaderContext leaf : sorted) {
+            if (leaf.reader().maxDoc() > maxDocs) {
+                slices.add(new IndexSearcher.LeafSlice(leaf));
+                continue;
+            }
+            group.add(leaf);
+            docs += leaf.reader().maxDoc();
+            if (docs > maxDocs || group.size() >= maxSegments) {
+                slices.add(new IndexSearcher.LeafSlice(group.toArray(new LeafReaderContext[0])));
+                group.clear();
+                docs = 0;
+            }
+        }
+        if (!group.isEmpty()) {
+            slices.add(new IndexSearcher.LeafSlice(group.toArray(new LeafReaderContext[0])));
+        }
+        return slices.toArray(new IndexSearcher.LeafSlice[0]);
+    }
+
+    @Override
+    public String toString() {
+        if (!isConcurrent()) {
+            return "single-threaded";
+        }
+        return threads + " threads, at most " + maxDocsPerSlice + " docs and "
+                + maxSegmentsPerSlice + " segments per slice";
+    }
+}
@@ -0,0 +1,51 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import org.apache.lucene.store.ByteBuffersDataOutput;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.MMapDirectory;
+import org.apache.lucene.store.SingleInstanceLockFactory;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+
+/*
+ * Where a LabIndex keeps its index. The in-memory modes never touch the
+ * disk and are meant for corpora that fit in RAM like CACM, FS and MMAP are
+ * the fallback for bigger ones.
+ */
+public enum StorageMode {
+    // Lucene's default directory for the platform, the historical behaviour
+    FS,
+    MMAP,
+    // Byte buffers allocated on the Java heap
+    HEAP,
+    // Direct byte buffers, outside of the Java heap
+    OFF_HEAP;
+
+    public Directory open(Path indexPath) throws IOException {
+        switch (this) {
+            case MMAP:
+                return new MMapDirectory(indexPath);
+            case HEAP:
+                return new ByteBuffersDirectory();
+            case OFF_HEAP:
+                return new ByteBuffersDirectory(
+                        new SingleInstanceLockFactory(),
+                        () -> new ByteBuffersDataOutput(
+                                ByteBuffersDataOutput.DEFAULT_MIN_BITS_PER_BLOCK,
+                                ByteBuffersDataOutput.DEFAULT_MAX_BITS_PER_BLOCK,
+                                ByteBuffer::allocateDirect,
+                                ByteBuffersDataOutput.NO_REUSE),
+                        ByteBuffersDirectory.OUTPUT_AS_MANY_BUFFERS);
+            default:
+                return FSDirectory.open(indexPath);
+        }
+    }
+
+    public boolean isInMemory() {
+        return this == HEAP || this == OFF_HEAP;
+    }
+}
@@ -0,0 +1,159 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CorpusRecordTest {
+
+    @Test
+    void splitsTheFields() {
+        CorpusRecord record = load("12\tPerlis, A. J.;Samelson,K.;\tA title\tThe summary");
+
+        assertEquals(12, record.getId());
+        assertEquals("12", record.getIdString());
+        assertEquals(List.of("Perlis, A. J.", "Samelson,K."), authors(record));
+        assertEquals("A title", record.getTitle());
+        assertTrue(record.hasSummary());
+        assertEquals("The summary", record.getSummary());
+        assertEquals("A title The summary", record.getContent());
+    }
+
+    @Test
+    void leavesTheMissingFieldsEmpty() {
+        CorpusRecord record = load("4\t\tGlossary of Terminology\t");
+
+        assertEquals(4, record.getId());
+        assertTrue(authors(record).isEmpty());
+        assertEquals("Glossary of Terminology", record.getTitle());
+        assertFalse(record.hasSummary());
+        assertEquals("Glossary of Terminology", record.getContent());
+
+        CorpusRecord idOnly = load("7");
+        assertEquals(7, idOnly.getId());
+        assertEquals("", idOnly.getTitle());
+        assertEquals("", idOnly.getContent());
+    }
+
+    @Test
+    void keepsTheTabsOfTheSummary() {
+        CorpusRecord record = load("1\tA;\tTitle\tFirst\tsecond\t");
+
+        assertEquals("First\tsecond", record.getSummary());
+    }
+
+    @Test
+    void readsTheContentLikeItsString() throws IOException {
+        CorpusRecord record = load("1\tA;\tTitle\tSummary");
+
+        assertEquals("Title\tSummary", read(record.contentReader()));
+        assertEquals("Title", read(record.titleReader()));
+        assertEquals("Summary", read(record.summaryReader()));
+    }
+
+    @Test
+    void parsesBeforeReadingAField() throws IOException {
+        CorpusRecord title = load("12\tA;\tHello title\tSome summary");
+        assertEquals("Hello title", read(title.titleReader()));
+
+        CorpusRecord summary = load("12\tA;\tHello title\tSome summary");
+        assertEquals("Some summary", read(summary.summaryReader()));
+    }
+
+    @Test
+    void readsTheFieldsOfAReusedRecord() throws IOException {
+        CorpusRecord record = load("12\tA;\tHello title\tSome summary");
+        assertEquals("Some summary", read(record.summaryReader()));
+
+        byte[] line = "13\tBB;\tX\tY".getBytes(StandardCharsets.UTF_8);
+        record.load(ByteBuffer.wrap(line), 0, line.length);
+        assertEquals("Y", read(record.summaryReader()));
+        assertEquals("X", read(record.titleReader()));
+    }
+
+    @Test
+    void decodesUtf8() {
+        CorpusRecord record = load("3\tErd\u0151s, P.;\tTh\u00e9orie\t");
+
+        assertEquals(List.of("Erd\u0151s, P."), authors(record));
+        assertEquals("Th\u00e9orie", record.getTitle());
+    }
+
+    @Test
+    void copiesTheLineWithoutMovingTheBuffer() {
+        byte[] bytes = "junk\n5\tA;\tTitle\tSummary\nmore".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.position(2);
+
+        CorpusRecord record = new CorpusRecord();
+        record.load(buffer, 5, 18);
+
+        assertEquals(2, buffer.position());
+        assertEquals(18, record.getByteLength());
+        assertEquals(5, record.getId());
+        assertEquals("Summary", record.getSummary());
+    }
+
+    @Test
+    void canBeReusedForALongerLine() {
+        CorpusRecord record = load("1\tA;\tShort\t");
+        String summary = "x".repeat(2000);
+        byte[] line = ("2\tB;\tLonger\t" + summary).getBytes(StandardCharsets.UTF_8);
+        record.load(ByteBuffer.wrap(line), 0, line.length);
+
+        assertEquals(2, record.getId());
+        assertEquals(List.of("B"), authors(record));
+        assertEquals(summary, record.getSummary());
+    }
+
+    @Test
+    void rejectsInvalidIds() {
+        CorpusRecord record = load("1a\tA;\tTitle\t");
+
+        assertThrows(NumberFormatException.class, record::getId);
+    }
+
+    @Test
+    void rejectsEmptyIds() {
+        assertThrows(NumberFormatException.class, load("\tA;\tTitle")::getId);
+    }
+
+    @Test
+    void rejectsIdsOutOfRange() {
+        assertEquals(Integer.MAX_VALUE, load("2147483647\tA;\tTitle").getId());
+        assertThrows(NumberFormatException.class, load("2147483648\tA;\tTitle")::getId);
+        assertThrows(NumberFormatException.class, load("99999999999\tA;\tTitle")::getId);
+    }
+
+    private static CorpusRecord load(String line) {
+        byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+        CorpusRecord record = new CorpusRecord();
+        record.load(ByteBuffer.wrap(bytes), 0, bytes.length);
+        return record;
+    }
+
+    private static List<String> authors(CorpusRecord record) {
+        List<String> authors = new ArrayList<>();
+        record.forEachAuthor(authors::add);
+        return authors;
+    }
+
+    private static String read(Reader reader) throws IOException {
+        StringBuilder text = new StringBuilder();
+        int c;
+        while ((c = reader.read()) >= 0) {
+            text.append((char) c);
+        }
+        return text.toString();
+    }
+}
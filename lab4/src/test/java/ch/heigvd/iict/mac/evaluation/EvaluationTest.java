@@ -0,0 +1,114 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class EvaluationTest {
+    private static final double DELTA = 1e-12;
+
+    @Test
+    void keepsTheQueriesInOrder() {
+        Qrels qrels = new Qrels();
+        qrels.add(1, new int[] {1, 2});
+        qrels.add(2, new int[] {3});
+        qrels.add(3, new int[] {4, 5, 6});
+
+        EvaluationMetrics metrics = Evaluation.computeMetrics(
+                List.of(new int[] {1, 9}, new int[] {9, 3, 8}, new int[0]), qrels, 11, RankMetric.parse("p@2"));
+
+        List<QueryMetrics> queries = metrics.getQueries();
+        assertEquals(3, queries.size());
+        for (int i = 0; i < queries.size(); i++) {
+            assertEquals(i + 1, queries.get(i).getQueryId());
+        }
+        assertEquals(0.5, queries.get(0).getRankMetric(0), DELTA);
+        assertEquals(0.5, queries.get(1).getRankMetric(0), DELTA);
+        assertEquals(0, queries.get(2).getRankMetric(0), DELTA);
+    }
+
+    @Test
+    void averagesTheQueries() {
+        Qrels qrels = new Qrels();
+        qrels.add(1, new int[] {1, 2});
+        qrels.add(2, new int[] {3});
+
+        EvaluationMetrics metrics = Evaluation.computeMetrics(
+                List.of(new int[] {1, 9}, new int[] {9, 3}), qrels, 11, RankMetric.parse("mrr"));
+
+        assertEquals(4, metrics.getTotalRetrievedDocs());
+        assertEquals(3, metrics.getTotalRelevantDocs());
+        assertEquals(2, metrics.getTotalRetrievedRelevantDocs());
+        assertEquals(0.5, metrics.getAvgPrecision(), DELTA);
+        assertEquals((0.5 + 1) / 2, metrics.getAvgRecall(), DELTA);
+        assertEquals((0.5 + 0.5) / 2, metrics.getMeanAveragePrecision(), DELTA);
+        assertEquals((1 + 0.5) / 2, metrics.getAvgRankMetric(0), DELTA);
+    }
+
+    @Test
+    void copiesTheArraysInAndOut() {
+        double[] precision = {1, 0.5};
+        double[] rankMetrics = {0.25};
+        EvaluationMetrics metrics = new EvaluationMetrics(2, 2, 1, 0.5, 0.5, 0.5, 0.5, 0.5, precision,
+                RankMetric.parse("mrr"), rankMetrics, List.of());
+        precision[0] = -1;
+        rankMetrics[0] = -1;
+        metrics.getAvgPrecisionAtRecallLevels()[1] = -1;
+
+        assertArrayEquals(new double[] {1, 0.5}, metrics.getAvgPrecisionAtRecallLevels(), DELTA);
+        assertEquals(0.25, metrics.getAvgRankMetric(0), DELTA);
+    }
+
+    @Test
+    void doesNotDependOnTheScheduling() {
+        Qrels qrels = new Qrels();
+        List<int[]> results = new ArrayList<>();
+        for (int query = 1; query <= 200; query++) {
+            qrels.add(query, new int[] {query, 2 * query, 3 * query});
+            int[] ranking = new int[50];
+            for (int rank = 0; rank < ranking.length; rank++) {
+                ranking[rank] = (rank * 7 + query) % 100;
+            }
+            results.add(ranking);
+        }
+        List<RankMetric> rankMetrics = RankMetric.parse("ndcg@10,bpref");
+
+        EvaluationMetrics first = Evaluation.computeMetrics(results, qrels, 11, rankMetrics);
+        for (int run = 0; run < 10; run++) {
+            EvaluationMetrics other = Evaluation.computeMetrics(results, qrels, 11, rankMetrics);
+            // Summed in the query order, so bit for bit the same
+            assertEquals(first.getMeanAveragePrecision(), other.getMeanAveragePrecision(), 0);
+            assertEquals(first.getAvgRankMetric(0), other.getAvgRankMetric(0), 0);
+            assertArrayEquals(first.getAvgPrecisionAtRecallLevels(), other.getAvgPrecisionAtRecallLevels(), 0);
+        }
+    }
+
+    @Test
+    void spreadsTheGridEvenly() {
+        assertArrayEquals(new double[] {0, 0.25, 0.5, 0.75, 1}, Evaluation.gridValues("0, 1, 5"), DELTA);
+        assertArrayEquals(new double[] {1.2}, Evaluation.gridValues("1.2,3.0,1"), DELTA);
+        assertArrayEquals(new double[] {0.5, 0.5}, Evaluation.gridValues("0.5,0.5,2"), DELTA);
+    }
+
+    @Test
+    void rejectsAnInvalidGrid() {
+        assertThrows(IllegalArgumentException.class, () -> Evaluation.gridValues("0,1,0"));
+        assertThrows(IllegalArgumentException.class, () -> Evaluation.gridValues("0,1,-3"));
+        assertThrows(IllegalArgumentException.class, () -> Evaluation.gridValues("1,0,5"));
+        assertThrows(IllegalArgumentException.class, () -> Evaluation.gridValues("0,1"));
+    }
+
+    @Test
+    void keepsTheIndexesOnDiskToReuseThem() {
+        assertEquals(StorageMode.MMAP, Evaluation.storageMode(null, true));
+        assertEquals(StorageMode.HEAP, Evaluation.storageMode(null, false));
+        assertEquals(StorageMode.FS, Evaluation.storageMode("fs", true));
+        assertEquals(StorageMode.OFF_HEAP, Evaluation.storageMode("off_heap", false));
+        assertThrows(IllegalArgumentException.class, () -> Evaluation.storageMode("heap", true));
+    }
+}
@@ -0,0 +1,163 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.document.TextField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IndexingPipelineTest {
+    private static final int DOCUMENTS = 100;
+
+    @Test
+    void indexesEveryLineOnce(@TempDir Path dir) throws Exception {
+        Path corpus = writeCorpus(dir);
+        Directory directory = new ByteBuffersDirectory();
+        IndexingStats stats = new IndexingStats(7);
+
+        // Two threads per stage and single-batch queues, so that every
+        // stage passes the end of the stream between its threads
+        List<PipelineStageStats> stages = assertTimeoutPreemptively(Duration.ofSeconds(30),
+                () -> run(corpus, directory, new IndexingPipeline.Config(2, 2, 2, 1, 3), stats,
+                        IndexingPipelineTest::createDocument));
+
+        assertEquals(4, stages.size());
+        assertEquals(DOCUMENTS, stats.getDocuments());
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            assertEquals(DOCUMENTS, reader.numDocs());
+            Set<Integer> ids = new HashSet<>();
+            for (int doc = 0; doc < reader.maxDoc(); doc++) {
+                ids.add(Integer.parseInt(reader.document(doc).get("id")));
+            }
+            Set<Integer> expected = new HashSet<>();
+            for (int id = 1; id <= DOCUMENTS; id++) {
+                expected.add(id);
+            }
+            assertEquals(expected, ids);
+        }
+    }
+
+    @Test
+    void stopsWhenAStageFails(@TempDir Path dir) throws Exception {
+        Path corpus = writeCorpus(dir);
+        Function<CorpusRecord, Document> failing = record -> {
+            if (record.getId() == 50) {
+                throw new IllegalStateException("Cannot build document 50");
+            }
+            return createDocument(record);
+        };
+
+        IllegalStateException e = assertTimeoutPreemptively(Duration.ofSeconds(30),
+                () -> assertThrows(IllegalStateException.class, () -> run(corpus, new ByteBuffersDirectory(),
+                        new IndexingPipeline.Config(2, 2, 2, 1, 3), new IndexingStats(7), failing)));
+        assertEquals("Cannot build document 50", e.getMessage());
+    }
+
+    @Test
+    void combinesTheStagesBelowAThreadPerStage() {
+        assertNull(IndexingPipeline.Config.forThreads(1));
+        assertTrue(IndexingPipeline.Config.forThreads(2).isCombined());
+        assertTrue(IndexingPipeline.Config.forThreads(3).isCombined());
+        assertFalse(IndexingPipeline.Config.forThreads(4).isCombined());
+        for (int threads = 2; threads <= 8; threads++) {
+            assertEquals(threads, IndexingPipeline.Config.forThreads(threads).getThreads());
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(ints = {2, 3})
+    void readsAndBuildsOnSeparateThreads(int threads, @TempDir Path dir) throws Exception {
+        Path corpus = writeCorpus(dir);
+        Directory directory = new ByteBuffersDirectory();
+        IndexingStats stats = new IndexingStats(threads);
+        Set<Thread> readers = ConcurrentHashMap.newKeySet();
+        Set<Thread> builders = ConcurrentHashMap.newKeySet();
+        Function<CorpusRecord, Document> builder = record -> {
+            builders.add(Thread.currentThread());
+            return createDocument(record);
+        };
+
+        List<PipelineStageStats> stages = assertTimeoutPreemptively(Duration.ofSeconds(30), () -> {
+            try (CorpusReader reader = new CorpusReader(corpus) {
+                @Override
+                public boolean next(CorpusRecord record) throws IOException {
+                    readers.add(Thread.currentThread());
+                    return super.next(record);
+                }
+            };
+                 IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+                return new IndexingPipeline(IndexingPipeline.Config.forThreads(threads), builder)
+                        .run(reader, writer, stats);
+            }
+        });
+
+        assertEquals(2, stages.size());
+        assertEquals(threads - 1, stages.get(1).getThreads());
+        assertEquals(DOCUMENTS, stats.getDocuments());
+        assertEquals(1, readers.size());
+        assertFalse(builders.isEmpty());
+        assertFalse(builders.contains(Thread.currentThread()));
+        assertTrue(Collections.disjoint(readers, builders));
+        try (DirectoryReader reader = DirectoryReader.open(directory)) {
+            assertEquals(DOCUMENTS, reader.numDocs());
+        }
+    }
+
+    private static List<PipelineStageStats> run(Path corpus, Directory directory, IndexingPipeline.Config config,
+                                                IndexingStats stats, Function<CorpusRecord, Document> builder)
+            throws Exception {
+        try (CorpusReader reader = new CorpusReader(corpus);
+             IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+            return new IndexingPipeline(config, builder).run(reader, writer, stats);
+        }
+    }
+
+    private static Path writeCorpus(Path dir) throws IOException {
+        StringBuilder lines = new StringBuilder();
+        for (int id = 1; id <= DOCUMENTS; id++) {
+            lines.append(id).append("\tAuthor, A.;\tTitle ").append(id).append("\tSummary ").append(id).append('\n');
+            if (id % 10 == 0) {
+                // Skipped by the reader
+                lines.append('\n');
+            }
+        }
+        Path file = dir.resolve("corpus.txt");
+        Files.write(file, lines.toString().getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    private static Document createDocument(CorpusRecord record) {
+        Document doc = new Document();
+        doc.add(new StringField("id", record.getIdString(), Field.Store.YES));
+        doc.add(new TextField("content", record.getContent(), Field.Store.NO));
+        return doc;
+    }
+}
@@ -0,0 +1,290 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.en.EnglishAnalyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.document.Field;
+import org.apache.lucene.document.NumericDocValuesField;
+import org.apache.lucene.document.StringField;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.ScoreDoc;
+import org.apache.lucene.search.similarities.BM25Similarity;
+import org.apache.lucene.search.similarities.ClassicSimilarity;
+import org.apache.lucene.search.similarities.Similarity;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LabIndexTest {
+    private static final String[] DOCUMENTS = {
+            "1\tSmith, J.;\tSorting algorithms\tA survey of sorting and merging algorithms",
+            "2\tDoe, A.;\tCompiler design\tParsing and code generation in a compiler",
+            "3\tSmith, J.; Doe, A.;\tParallel sorting\tSorting on parallel computers",
+            "4\t\tOperating systems\tScheduling and memory management",
+            "5\tRoe, B.;\tSearching tables\tHash tables for fast searching and sorting",
+    };
+
+    @Test
+    void reusesAnIndexWithTheSameFingerprint(@TempDir Path dir) throws IOException {
+        Path corpus = writeCorpus(dir);
+        Path indexPath = dir.resolve("index");
+
+        assertFalse(build(corpus, indexPath, new StandardAnalyzer(), new ClassicSimilarity(), index -> { }).isReused());
+        IndexingStats stats = build(corpus, indexPath, new StandardAnalyzer(), new ClassicSimilarity(), index -> { });
+        assertTrue(stats.isReused());
+        assertEquals(DOCUMENTS.length, stats.getDocuments());
+    }
+
+    @Test
+    void rebuildsWhenTheConfigurationChanges(@TempDir Path dir) throws IOException {
+        Path corpus = writeCorpus(dir);
+        Path indexPath = dir.resolve("index");
+        build(corpus, indexPath, new StandardAnalyzer(), new ClassicSimilarity(), index -> { });
+
+        assertRebuilt(corpus, indexPath, new EnglishAnalyzer(), new ClassicSimilarity(), index -> { });
+        assertRebuilt(corpus, indexPath, new StandardAnalyzer(), new ClassicSimilarity(), index -> { });
+        assertRebuilt(corpus, indexPath, new StandardAnalyzer(), new BM25Similarity(), index -> { });
+        assertRebuilt(corpus, indexPath, new StandardAnalyzer(), new ClassicSimilarity(),
+                index -> index.setSortOrder(IndexSortOrder.ID));
+        assertRebuilt(corpus, indexPath, new StandardAnalyzer(), new ClassicSimilarity(),
+                index -> index.setForceMergeSegments(1));
+    }
+
+    @Test
+    void rebuildsWhenTheSchemaChanges(@TempDir Path dir) throws IOException {
+        Path corpus = writeCorpus(dir);
+        Path indexPath = dir.resolve("index");
+        build(corpus, indexPath, new StandardAnalyzer(), new ClassicSimilarity(), index -> { });
+
+        assertFalse(build(corpus, indexPath, new StandardAnalyzer(), SchemaProfile.EVAL_LEAN,
+                new ClassicSimilarity(), index -> { }).isReused());
+        assertTrue(build(corpus, indexPath, new StandardAnalyzer(), SchemaProfile.EVAL_LEAN,
+                new ClassicSimilarity(), index -> { }).isReused());
+    }
+
+    @Test
+    void rebuildsWhenTheNormsChange(@TempDir Path dir) throws IOException {
+        Path corpus = writeCorpus(dir);
+        Path indexPath = dir.resolve("index");
+        build(corpus, indexPath, new StandardAnalyzer(), new BM25Similarity(), index -> { });
+
+        BM25Similarity countingOverlaps = new BM25Similarity();
+        countingOverlaps.setDiscountOverlaps(false);
+        assertRebuilt(corpus, indexPath, new StandardAnalyzer(), countingOverlaps, index -> { });
+    }
+
+    @Test
+    void rebuildsWhenTheCorpusChanges(@TempDir Path dir) throws IOException {
+        Path corpus = writeCorpus(dir);
+        Path indexPath = dir.resolve("index");
+        build(corpus, indexPath, new StandardAnalyzer(), new ClassicSimilarity(), index -> { });
+
+        Files.writeString(corpus, "6\t\tNew document\tAppended later\n", StandardCharsets.UTF_8,
+                StandardOpenOption.APPEND);
+        IndexingStats stats = build(corpus, indexPath, new StandardAnalyzer(), new ClassicSimilarity(), index -> { });
+        assertFalse(stats.isReused());
+        assertEquals(DOCUMENTS.length + 1, stats.getDocuments());
+    }
+
+    @Test
+    void rebuildsWhenReuseIsDisabled(@TempDir Path dir) throws IOException {
+        Path corpus = writeCorpus(dir);
+        Path indexPath = dir.resolve("index");
+        build(corpus, indexPath, new StandardAnalyzer(), new ClassicSimilarity(), index -> { });
+
+        assertFalse(build(corpus, indexPath, new StandardAnalyzer(), new ClassicSimilarity(),
+                index -> index.setReuseExistingIndex(false)).isReused());
+    }
+
+    @Test
+    void returnsTheRankingsInTheOrderOfTheQueries(@TempDir Path dir) throws IOException {
+        Path corpus = writeCorpus(dir);
+        List<String> queries = List.of("compiler", "sorting", "memory", "hash tables", "parallel", "sorting");
+
+        try (LabIndex index = new LabIndex(new StandardAnalyzer(), dir.resolve("index"), StorageMode.HEAP)) {
+            index.index(corpus.toString());
+            List<int[]> rankings = index.searchAll(queries, 4);
+
+            assertEquals(queries.size(), rankings.size());
+            assertArrayEquals(new int[] {2}, rankings.get(0));
+            assertArrayEquals(new int[] {4}, rankings.get(2));
+            for (int i = 0; i < queries.size(); i++) {
+                assertEquals(index.search(queries.get(i)), toList(rankings.get(i)));
+            }
+            assertArrayEquals(rankings.get(1), rankings.get(5));
+        }
+    }
+
+    @Test
+    void boundsEachCallToItsThreads(@TempDir Path dir) throws Exception {
+        Path corpus = writeCorpus(dir);
+        List<String> queries = List.of("compiler", "sorting", "memory");
+        List<ClassicSimilarity> similarities = new ArrayList<>();
+        for (int i = 0; i < 8; i++) {
+            similarities.add(new ClassicSimilarity());
+        }
+
+        try (LabIndex index = new LabIndex(new StandardAnalyzer(), dir.resolve("index"), StorageMode.HEAP)) {
+            index.index(corpus.toString());
+            // Grows the shared pool to 8 threads first
+            for (int threads : new int[] {8, 2, 1}) {
+                Set<Thread> used = ConcurrentHashMap.newKeySet();
+                List<Integer> hits = index.searchWithEach(queries, similarities, threads, rankings -> {
+                    used.add(Thread.currentThread());
+                    return rankings.get(1).length;
+                });
+
+                assertEquals(Collections.nCopies(similarities.size(), 3), hits);
+                assertTrue(used.size() <= threads, used.size() + " threads for " + threads);
+            }
+        }
+    }
+
+    @Test
+    void mergesASortedIndexIntoOneSegmentInIdOrder(@TempDir Path dir) throws IOException {
+        Path corpus = writeCorpus(dir);
+        Path indexPath = dir.resolve("index");
+        // A segment every two documents
+        IndexingProfile profile = new IndexingProfile(IndexWriterConfig.DISABLE_AUTO_FLUSH, 2, 0, 0);
+
+        try (LabIndex index = new LabIndex(new StandardAnalyzer(), indexPath, StorageMode.FS)) {
+            index.setIndexingProfile(profile);
+            assertTrue(index.index(corpus.toString(), 3).getSegments() > 1);
+        }
+        try (LabIndex index = new LabIndex(new StandardAnalyzer(), indexPath, StorageMode.FS)) {
+            index.setIndexingProfile(profile);
+            index.setSortOrder(IndexSortOrder.ID);
+            assertEquals(1, index.index(corpus.toString(), 3).getSegments());
+        }
+        try (Directory directory = FSDirectory.open(indexPath);
+             DirectoryReader reader = DirectoryReader.open(directory)) {
+            NumericDocValues ids = reader.leaves().get(0).reader().getNumericDocValues("id");
+            for (int doc = 0; doc < reader.maxDoc(); doc++) {
+                assertTrue(ids.advanceExact(doc));
+                assertEquals(doc + 1, ids.longValue());
+            }
+        }
+    }
+
+    @Test
+    void readsTheSameIdsFromTheDocValuesAndTheStoredFields() throws IOException {
+        try (Directory directory = new ByteBuffersDirectory()) {
+            try (IndexWriter writer = new IndexWriter(directory, new IndexWriterConfig(new StandardAnalyzer()))) {
+                // A segment with the id doc values, then one with the stored ids only
+                for (int id = 1; id <= 20; id++) {
+                    Document doc = new Document();
+                    doc.add(new StringField("id", Integer.toString(id), Field.Store.YES));
+                    if (id <= 10) {
+                        doc.add(new NumericDocValuesField("id", id));
+                    }
+                    writer.addDocument(doc);
+                    if (id == 10) {
+                        writer.commit();
+                    }
+                }
+            }
+            try (DirectoryReader reader = DirectoryReader.open(directory)) {
+                assertEquals(2, reader.leaves().size());
+                IndexSearcher searcher = new IndexSearcher(reader);
+                // Out of doc order, like a ranking
+                ScoreDoc[] hits = new ScoreDoc[reader.maxDoc()];
+                for (int i = 0; i < hits.length; i++) {
+                    hits[i] = new ScoreDoc((i * 7) % hits.length, 1f);
+                }
+
+                int[] ids = LabIndex.readIds(searcher, hits);
+
+                for (int i = 0; i < hits.length; i++) {
+                    assertEquals(Integer.parseInt(searcher.doc(hits[i].doc).get("id")), ids[i]);
+                }
+            }
+        }
+    }
+
+    @Test
+    void ranksTheSameInMemoryAndOnDisk(@TempDir Path dir) throws IOException {
+        Path corpus = writeCorpus(dir);
+        List<String> queries = List.of("compiler", "sorting", "memory", "hash tables", "parallel sorting");
+
+        List<int[]> onDisk = rankings(corpus, dir.resolve("fs"), StorageMode.FS, queries);
+        // Documents 1, 3 and 5 mention sorting
+        assertEquals(3, onDisk.get(1).length);
+        for (StorageMode storageMode : List.of(StorageMode.HEAP, StorageMode.OFF_HEAP)) {
+            List<int[]> inMemory = rankings(corpus, dir.resolve(storageMode.name()), storageMode, queries);
+            for (int i = 0; i < queries.size(); i++) {
+                assertArrayEquals(onDisk.get(i), inMemory.get(i), storageMode + " " + queries.get(i));
+            }
+        }
+    }
+
+    /*
+     * Builds the configuration twice, the first time rebuilding the index
+     * and the second time reusing it.
+     */
+    private static void assertRebuilt(Path corpus, Path indexPath, Analyzer analyzer, Similarity similarity,
+                                      Consumer<LabIndex> configuration) throws IOException {
+        IndexingStats stats = build(corpus, indexPath, analyzer, similarity, configuration);
+        assertFalse(stats.isReused());
+        assertEquals(DOCUMENTS.length, stats.getDocuments());
+        assertTrue(build(corpus, indexPath, analyzer, similarity, configuration).isReused());
+    }
+
+    private static IndexingStats build(Path corpus, Path indexPath, Analyzer analyzer, Similarity similarity,
+                                       Consumer<LabIndex> configuration) throws IOException {
+        return build(corpus, indexPath, analyzer, SchemaProfile.FULL, similarity, configuration);
+    }
+
+    private static IndexingStats build(Path corpus, Path indexPath, Analyzer analyzer, SchemaProfile schemaProfile,
+                                       Similarity similarity, Consumer<LabIndex> configuration) throws IOException {
+        try (LabIndex index = new LabIndex(analyzer, indexPath, StorageMode.FS, schemaProfile, similarity)) {
+            configuration.accept(index);
+            return index.index(corpus.toString());
+        }
+    }
+
+    private static List<int[]> rankings(Path corpus, Path indexPath, StorageMode storageMode, List<String> queries)
+            throws IOException {
+        try (LabIndex index = new LabIndex(new StandardAnalyzer(), indexPath, storageMode)) {
+            index.index(corpus.toString());
+            return index.searchAll(queries, 2);
+        }
+    }
+
+    private static List<Integer> toList(int[] ids) {
+        List<Integer> list = new ArrayList<>();
+        for (int id : ids) {
+            list.add(id);
+        }
+        return list;
+    }
+
+    private static Path writeCorpus(Path dir) throws IOException {
+        Path file = dir.resolve("corpus.txt");
+        Files.write(file, (String.join("\n", DOCUMENTS) + "\n").getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+}
@@ -0,0 +1,96 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    void givesZeroWhenEmpty() {
+        LatencyHistogram histogram = new LatencyHistogram();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(50));
+        assertEquals(0, histogram.getMax());
+    }
+
+    @Test
+    void keepsTheSmallValuesExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 0; value < 256; value++) {
+            histogram.record(value);
+        }
+
+        assertEquals(256, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(0));
+        assertEquals(127, histogram.getValueAtPercentile(50));
+        assertEquals(255, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    void splitsThePowersOfTwoIntoSubBuckets() {
+        // 256 and 257 share the first bucket above the linear range, 258 starts the next one
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(256);
+        histogram.record(258);
+        histogram.record(10_000);
+
+        assertEquals(257, histogram.getValueAtPercentile(33));
+        assertEquals(259, histogram.getValueAtPercentile(34));
+    }
+
+    @Test
+    void neverReportsMoreThanTheMaximum() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(256);
+
+        assertEquals(256, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    void staysWithinOnePercentOfTheLargeValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 1_000_000; value++) {
+            histogram.record(value);
+        }
+
+        assertWithinOnePercent(500_000, histogram.getValueAtPercentile(50));
+        assertWithinOnePercent(990_000, histogram.getValueAtPercentile(99));
+        assertEquals(1_000_000, histogram.getValueAtPercentile(100));
+        assertEquals(1_000_000, histogram.getMax());
+    }
+
+    @Test
+    void recordsTheLargestValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(Long.MAX_VALUE);
+
+        assertEquals(Long.MAX_VALUE, histogram.getValueAtPercentile(50));
+    }
+
+    @Test
+    void recordsNegativeValuesAsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-5);
+
+        assertEquals(0, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    void countsTheCacheHitsApart() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.recordCacheHit();
+        histogram.recordCacheHit();
+
+        assertEquals(0, histogram.getCount());
+        assertEquals(2, histogram.getCacheHits());
+        assertEquals("no search (2 cache hits)", histogram.toString());
+    }
+
+    private static void assertWithinOnePercent(long expected, long actual) {
+        assertTrue(actual >= expected && actual <= expected * 1.01,
+                actual + " is not within 1% of " + expected);
+    }
+}
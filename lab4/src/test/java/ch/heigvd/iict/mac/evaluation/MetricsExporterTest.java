@@ -0,0 +1,44 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class MetricsExporterTest {
+
+    @Test
+    void leavesTheNonFiniteValuesEmptyInBothFormats(@TempDir Path dir) throws IOException {
+        QueryMetrics query = new QueryMetrics(1, 1, 1, 0, Double.NaN, Double.POSITIVE_INFINITY,
+                new double[] {0, 0}, new double[0]);
+        EvaluationMetrics metrics = new EvaluationMetrics(1, 1, 0, 0, 0, 0, Double.NaN, 0, new double[] {0, 0},
+                List.of(), new double[0], List.of(query));
+        MetricsExporter exporter = new MetricsExporter();
+        exporter.add("Standard", metrics);
+
+        Path csv = dir.resolve("metrics.csv");
+        exporter.write(csv);
+        List<String> lines = Files.readAllLines(csv, StandardCharsets.UTF_8);
+        List<String> columns = List.of(lines.get(0).split(","));
+        String[] queryRow = lines.get(1).split(",", -1);
+        assertEquals("", queryRow[columns.indexOf("average_precision")]);
+        assertEquals("", queryRow[columns.indexOf("r_precision")]);
+        assertEquals("0.0", queryRow[columns.indexOf("precision")]);
+        assertEquals("", lines.get(2).split(",", -1)[columns.indexOf("average_precision")]);
+
+        Path json = dir.resolve("metrics.json");
+        exporter.write(json);
+        String content = Files.readString(json, StandardCharsets.UTF_8);
+        assertTrue(content.contains("\"average_precision\": null"));
+        assertTrue(content.contains("\"r_precision\": null"));
+        assertFalse(content.contains("NaN") || content.contains("Infinity"));
+    }
+}
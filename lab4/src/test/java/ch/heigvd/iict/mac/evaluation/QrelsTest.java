@@ -0,0 +1,112 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class QrelsTest {
+
+    @Test
+    void keepsTheRelevantDocumentsSorted() {
+        Qrels qrels = new Qrels();
+        qrels.add(3, new int[] {30, 10, 20});
+
+        assertArrayEquals(new int[] {10, 20, 30}, qrels.get(3));
+        assertTrue(qrels.isRelevant(3, 20));
+        assertFalse(qrels.isRelevant(3, 25));
+        assertEquals(3, qrels.relevantCount(3));
+    }
+
+    @Test
+    void mergesAndDeduplicatesTheJudgments() {
+        Qrels qrels = new Qrels();
+        qrels.add(1, new int[] {5, 3, 5});
+        qrels.add(1, new int[] {4, 3});
+
+        assertArrayEquals(new int[] {3, 4, 5}, qrels.get(1));
+        assertEquals(1, qrels.size());
+    }
+
+    @Test
+    void countsTheQueriesWithQrels() {
+        Qrels qrels = new Qrels();
+        qrels.add(1, new int[] {1, 2});
+        qrels.add(100, new int[] {1, 2, 3, 4});
+
+        assertEquals(2, qrels.size());
+        assertEquals(3.0, qrels.averageRelevantCount());
+        assertEquals(0.0, new Qrels().averageRelevantCount());
+    }
+
+    @Test
+    void cannotBeChangedThroughTheReturnedDocuments() {
+        Qrels qrels = new Qrels();
+        qrels.add(1, new int[] {10, 20, 30});
+
+        int[] docs = qrels.get(1);
+        docs[0] = 40;
+        Arrays.sort(docs);
+
+        assertArrayEquals(new int[] {10, 20, 30}, qrels.get(1));
+        assertTrue(qrels.isRelevant(1, 10));
+        assertFalse(qrels.isRelevant(1, 40));
+    }
+
+    @Test
+    void givesNothingForUnknownQueries() {
+        Qrels qrels = new Qrels();
+        qrels.add(2, new int[] {1});
+
+        assertEquals(0, qrels.get(1).length);
+        assertEquals(0, qrels.get(-1).length);
+        assertEquals(0, qrels.relevantCount(1000));
+        assertFalse(qrels.isRelevant(1000, 1));
+    }
+
+    @Test
+    void keepsSparseQueryNumbers() {
+        Qrels qrels = new Qrels();
+        qrels.add(Integer.MAX_VALUE, new int[] {1});
+        qrels.add(400_000_000, new int[] {2, 3});
+        qrels.add(7, new int[] {4});
+        qrels.add(400_000_000, new int[] {5});
+
+        assertEquals(3, qrels.size());
+        assertArrayEquals(new int[] {1}, qrels.get(Integer.MAX_VALUE));
+        assertArrayEquals(new int[] {2, 3, 5}, qrels.get(400_000_000));
+        assertArrayEquals(new int[] {4}, qrels.get(7));
+        assertEquals(0, qrels.relevantCount(8));
+        assertEquals(5 / 3.0, qrels.averageRelevantCount(), 1e-12);
+    }
+
+    @Test
+    void rejectsNegativeQueryNumbers() {
+        Qrels qrels = new Qrels();
+
+        assertThrows(IllegalArgumentException.class, () -> qrels.add(-1, new int[] {1}));
+        assertThrows(IllegalArgumentException.class, () -> qrels.addNonRelevant(-1, new int[] {1}));
+        assertEquals(0, qrels.size());
+    }
+
+    @Test
+    void keepsTheNonRelevantDocumentsApart() {
+        Qrels qrels = new Qrels();
+        qrels.add(1, new int[] {1});
+        qrels.addNonRelevant(1, new int[] {3, 2, 3});
+        qrels.addNonRelevant(5, new int[] {7});
+
+        assertEquals(2, qrels.nonRelevantCount(1));
+        assertTrue(qrels.isJudgedNonRelevant(1, 2));
+        assertFalse(qrels.isJudgedNonRelevant(1, 1));
+        assertFalse(qrels.isRelevant(1, 2));
+        // Only the relevant documents make a query counted
+        assertEquals(1, qrels.size());
+        assertEquals(0, qrels.relevantCount(5));
+    }
+}
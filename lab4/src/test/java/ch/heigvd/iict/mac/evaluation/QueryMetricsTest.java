@@ -0,0 +1,90 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class QueryMetricsTest {
+    private static final double DELTA = 1e-12;
+
+    @Test
+    void interpolatesAtTheElevenRecallLevels() {
+        // 4 relevant documents, 3 of them retrieved at the ranks 1, 3 and 6
+        double[] precision = new double[11];
+        QueryMetrics.interpolatePrecision(new int[] {0, 2, 5}, 3, 4, precision);
+
+        double twoThirds = 2. / 3;
+        assertArrayEquals(new double[] {1, 1, 1, twoThirds, twoThirds, twoThirds, 0.5, 0.5, 0, 0, 0},
+                precision, DELTA);
+    }
+
+    @Test
+    void takesTheBestPrecisionAtAHigherRecall() {
+        // The precision rises from 1/2 to 2/3, every level gets 2/3
+        double[] precision = new double[11];
+        QueryMetrics.interpolatePrecision(new int[] {1, 2}, 2, 2, precision);
+
+        for (double value : precision) {
+            assertEquals(2. / 3, value, DELTA);
+        }
+    }
+
+    @Test
+    void interpolatesAtOtherRecallLevels() {
+        double[] precision = new double[3];
+        QueryMetrics.interpolatePrecision(new int[] {0, 3}, 2, 2, precision);
+
+        assertArrayEquals(new double[] {1, 1, 0.5}, precision, DELTA);
+    }
+
+    @Test
+    void givesZeroWithoutRelevantDocuments() {
+        double[] retrievedNone = {-1, -1, -1};
+        QueryMetrics.interpolatePrecision(new int[0], 0, 3, retrievedNone);
+        assertArrayEquals(new double[3], retrievedNone, DELTA);
+
+        double[] noQrels = {-1, -1, -1};
+        QueryMetrics.interpolatePrecision(new int[0], 0, 0, noQrels);
+        assertArrayEquals(new double[3], noQrels, DELTA);
+    }
+
+    @Test
+    void computesTheQueryMetrics() {
+        Qrels qrels = new Qrels();
+        qrels.add(1, new int[] {10, 30, 50, 70});
+
+        QueryMetrics metrics = QueryMetrics.compute(1, new int[] {10, 20, 30, 40, 60, 50}, qrels);
+
+        assertEquals(6, metrics.getRetrievedDocs());
+        assertEquals(4, metrics.getRelevantDocs());
+        assertEquals(3, metrics.getRetrievedRelevantDocs());
+        assertEquals(0.5, metrics.getPrecision(), DELTA);
+        assertEquals(0.75, metrics.getRecall(), DELTA);
+        assertEquals((1 + 2. / 3 + 0.5) / 4, metrics.getAveragePrecision(), DELTA);
+        // 2 relevant documents in the first 4
+        assertEquals(0.5, metrics.getRPrecision(), DELTA);
+        assertEquals(11, metrics.getRecallLevels());
+        assertEquals(1, metrics.getPrecisionAtRecallLevel(0), DELTA);
+        assertEquals(0, metrics.getPrecisionAtRecallLevel(10), DELTA);
+    }
+
+    @Test
+    void copiesTheArraysItIsGiven() {
+        double[] precision = {1, 0.5};
+        double[] rankMetrics = {0.25};
+        QueryMetrics metrics = new QueryMetrics(1, 2, 2, 1, 0.5, 0.5, precision, rankMetrics);
+        precision[0] = -1;
+        rankMetrics[0] = -1;
+
+        assertEquals(1, metrics.getPrecisionAtRecallLevel(0), DELTA);
+        assertEquals(0.25, metrics.getRankMetric(0), DELTA);
+    }
+
+    @Test
+    void needsTheFirstAndLastRecallLevels() {
+        assertThrows(IllegalArgumentException.class,
+                () -> QueryMetrics.compute(1, new int[0], new Qrels(), 1));
+    }
+}
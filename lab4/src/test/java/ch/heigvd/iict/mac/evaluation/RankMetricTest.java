@@ -0,0 +1,128 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class RankMetricTest {
+    private static final double DELTA = 1e-12;
+
+    @Test
+    void parsesNamesAndCutoffs() {
+        List<RankMetric> metrics = RankMetric.parse("ndcg@10, P@5,Recall@100,mrr,BPREF,success@1,");
+
+        assertEquals(6, metrics.size());
+        assertEquals(RankMetric.Type.NDCG, metrics.get(0).getType());
+        assertEquals(10, metrics.get(0).getCutoff());
+        assertEquals(RankMetric.Type.PRECISION, metrics.get(1).getType());
+        assertEquals(5, metrics.get(1).getCutoff());
+        assertEquals(RankMetric.Type.RECALL, metrics.get(2).getType());
+        assertEquals(RankMetric.Type.MRR, metrics.get(3).getType());
+        assertEquals(RankMetric.ALL, metrics.get(3).getCutoff());
+        assertEquals(RankMetric.Type.BPREF, metrics.get(4).getType());
+        assertEquals(RankMetric.Type.SUCCESS, metrics.get(5).getType());
+        assertEquals("nDCG@10", metrics.get(0).toString());
+        assertEquals("MRR", metrics.get(3).toString());
+    }
+
+    @Test
+    void parsesAnEmptySpec() {
+        assertTrue(RankMetric.parse("").isEmpty());
+    }
+
+    @Test
+    void rejectsUnknownMetricsAndNegativeCutoffs() {
+        assertThrows(IllegalArgumentException.class, () -> RankMetric.parse("map@10"));
+        assertThrows(IllegalArgumentException.class, () -> RankMetric.parse("p@-1"));
+    }
+
+    @Test
+    void readsTheMetricsAtTheirCutoff() {
+        Qrels qrels = new Qrels();
+        qrels.add(1, new int[] {10, 12, 20});
+
+        double[] values = rankMetrics(qrels, new int[] {11, 10, 12, 13}, "p@1,p@2,recall@2,success@1,mrr");
+
+        assertEquals(0, values[0], DELTA);
+        assertEquals(0.5, values[1], DELTA);
+        assertEquals(1. / 3, values[2], DELTA);
+        assertEquals(0, values[3], DELTA);
+        assertEquals(0.5, values[4], DELTA);
+    }
+
+    @Test
+    void readsTheCutoffsBeyondTheRankingAtItsEnd() {
+        Qrels qrels = new Qrels();
+        qrels.add(1, new int[] {10, 12, 20});
+
+        double[] values = rankMetrics(qrels, new int[] {10, 11, 12}, "p@10,recall@10,ndcg@10,success@10");
+
+        // Still divided by the cutoff
+        assertEquals(0.2, values[0], DELTA);
+        assertEquals(2. / 3, values[1], DELTA);
+        double dcg = 1 + 1 / RankMetric.log2(4);
+        double idealDcg = 1 + 1 / RankMetric.log2(3) + 1 / RankMetric.log2(4);
+        assertEquals(dcg / idealDcg, values[2], DELTA);
+        assertEquals(1, values[3], DELTA);
+    }
+
+    @Test
+    void givesZeroForAnEmptyRanking() {
+        Qrels qrels = new Qrels();
+        qrels.add(1, new int[] {10});
+
+        for (double value : rankMetrics(qrels, new int[0], "ndcg@10,p@10,p,recall,mrr,bpref,success@10")) {
+            assertEquals(0, value, DELTA);
+        }
+    }
+
+    @Test
+    void bprefIsTheRecallWithoutJudgedNonRelevantDocuments() {
+        Qrels qrels = new Qrels();
+        qrels.add(1, new int[] {10, 12, 20});
+
+        double[] values = rankMetrics(qrels, new int[] {11, 13, 10, 12}, "bpref");
+
+        assertEquals(2. / 3, values[0], DELTA);
+    }
+
+    @Test
+    void bprefOnlyCountsJudgedNonRelevantDocuments() {
+        Qrels qrels = new Qrels();
+        qrels.add(1, new int[] {10, 12, 20});
+        qrels.addNonRelevant(1, new int[] {11});
+
+        // 13 is unjudged, 10 has nothing judged above it, 12 has 11 of min(R, N) = 1
+        double[] judged = rankMetrics(qrels, new int[] {13, 10, 11, 12}, "bpref");
+        assertEquals((1 + 0) / 3., judged[0], DELTA);
+
+        double[] unjudged = rankMetrics(qrels, new int[] {13, 10, 14, 12}, "bpref");
+        assertEquals(2. / 3, unjudged[0], DELTA);
+    }
+
+    @Test
+    void bprefNormalisesByTheSmallerOfRelevantAndNonRelevant() {
+        Qrels qrels = new Qrels();
+        qrels.add(1, new int[] {10, 12});
+        qrels.addNonRelevant(1, new int[] {11, 13, 15, 17});
+
+        // min(R, N) = 2: 12 has 1 of 2 judged non-relevant above it
+        double[] values = rankMetrics(qrels, new int[] {10, 11, 12}, "bpref");
+
+        assertEquals((1 + 0.5) / 2, values[0], DELTA);
+    }
+
+    private static double[] rankMetrics(Qrels qrels, int[] ranking, String spec) {
+        List<RankMetric> metrics = RankMetric.parse(spec);
+        QueryMetrics query = QueryMetrics.compute(1, ranking, qrels, QueryMetrics.DEFAULT_RECALL_LEVELS, metrics);
+        double[] values = new double[query.getRankMetricCount()];
+        for (int i = 0; i < values.length; i++) {
+            values[i] = query.getRankMetric(i);
+        }
+        return values;
+    }
+}
@@ -0,0 +1,153 @@
+package ch.heigvd.iict.mac.evaluation;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class ResultCacheTest {
+
+    @Test
+    void comparesTheKeysByValue() {
+        ResultCache.Key key = new ResultCache.Key("v1", "BM25", "query", 10);
+
+        assertEquals(key, new ResultCache.Key("v1", "BM25", new String("query"), 10));
+        assertEquals(key.hashCode(), new ResultCache.Key("v1", "BM25", "query", 10).hashCode());
+        assertNotEquals(key, new ResultCache.Key("v2", "BM25", "query", 10));
+        assertNotEquals(key, new ResultCache.Key("v1", "Classic", "query", 10));
+        assertNotEquals(key, new ResultCache.Key("v1", "BM25", "other", 10));
+        assertNotEquals(key, new ResultCache.Key("v1", "BM25", "query", 20));
+        assertNotEquals(key, null);
+    }
+
+    @Test
+    void countsTheHitsAndMisses() {
+        ResultCache cache = new ResultCache(10);
+        cache.put(key("a"), ranking(1));
+
+        assertNotNull(cache.get(key("a")));
+        assertNull(cache.get(key("b")));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void evictsTheLeastRecentlyUsedRanking() {
+        ResultCache cache = new ResultCache(2);
+        cache.put(key("a"), ranking(1));
+        cache.put(key("b"), ranking(2));
+        // Reading a makes b the least recently used
+        cache.get(key("a"));
+        cache.put(key("c"), ranking(3));
+
+        assertEquals(2, cache.size());
+        assertNotNull(cache.get(key("a")));
+        assertNull(cache.get(key("b")));
+        assertNotNull(cache.get(key("c")));
+    }
+
+    @Test
+    void loadsWhatWasSaved(@TempDir Path dir) throws IOException {
+        // Longer than the 64 KB writeUTF takes, and not only ASCII
+        String longQuery = "th\u00e9orie ".repeat(10_000);
+        ResultCache cache = new ResultCache(10);
+        cache.put(key("a"), new Ranking(new int[] {3, 1, 2}, new float[] {3f, 2f, 1f}));
+        cache.put(key(longQuery), new Ranking(new int[0], new float[0]));
+        Path file = dir.resolve("results.cache");
+        cache.save(file);
+
+        ResultCache loaded = new ResultCache(10);
+        loaded.load(file);
+
+        assertEquals(2, loaded.size());
+        Ranking ranking = loaded.get(key("a"));
+        assertArrayEquals(new int[] {3, 1, 2}, ranking.getIds());
+        assertArrayEquals(new float[] {3f, 2f, 1f}, ranking.getScores());
+        assertEquals(0, loaded.get(key(longQuery)).size());
+    }
+
+    @Test
+    void keepsTheEvictionOrderThroughAFile(@TempDir Path dir) throws IOException {
+        ResultCache cache = new ResultCache(2);
+        cache.put(key("a"), ranking(1));
+        cache.put(key("b"), ranking(2));
+        cache.get(key("a"));
+        Path file = dir.resolve("results.cache");
+        cache.save(file);
+
+        ResultCache loaded = new ResultCache(2);
+        loaded.load(file);
+        loaded.put(key("c"), ranking(3));
+
+        assertNull(loaded.get(key("b")));
+        assertNotNull(loaded.get(key("a")));
+    }
+
+    @Test
+    void loadsNothingWithoutAFile(@TempDir Path dir) throws IOException {
+        ResultCache cache = new ResultCache(10);
+        cache.load(dir.resolve("missing.cache"));
+
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    void rejectsANegativeCount(@TempDir Path dir) throws IOException {
+        Path file = dir.resolve("results.cache");
+        try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(file))) {
+            out.writeInt(2);
+            out.writeInt(-1);
+        }
+
+        assertThrows(IOException.class, () -> new ResultCache(10).load(file));
+    }
+
+    @Test
+    void rejectsASizeLongerThanTheFile(@TempDir Path dir) throws IOException {
+        ResultCache cache = new ResultCache(10);
+        cache.put(key("a"), ranking(1));
+        Path file = dir.resolve("results.cache");
+        cache.save(file);
+        byte[] bytes = Files.readAllBytes(file);
+        // The ranking size is right before its id and its score
+        ByteBuffer.wrap(bytes).putInt(bytes.length - 12, Integer.MAX_VALUE);
+        Files.write(file, bytes);
+
+        assertThrows(IOException.class, () -> new ResultCache(10).load(file));
+        ByteBuffer.wrap(bytes).putInt(bytes.length - 12, -3);
+        Files.write(file, bytes);
+        assertThrows(IOException.class, () -> new ResultCache(10).load(file));
+    }
+
+    @Test
+    void rejectsATruncatedFile(@TempDir Path dir) throws IOException {
+        ResultCache cache = new ResultCache(10);
+        cache.put(key("a"), ranking(1));
+        Path file = dir.resolve("results.cache");
+        cache.save(file);
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 2));
+
+        assertThrows(IOException.class, () -> new ResultCache(10).load(file));
+    }
+
+    private static ResultCache.Key key(String query) {
+        return new ResultCache.Key("v1", "BM25", query, 10);
+    }
+
+    private static Ranking ranking(int id) {
+        return new Ranking(new int[] {id}, new float[] {1f});
+    }
+}